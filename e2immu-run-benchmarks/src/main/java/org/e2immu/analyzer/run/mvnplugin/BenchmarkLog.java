@@ -0,0 +1,38 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/*
+Only warnings and errors, so that the output of JMH stays readable.
+ */
+public class BenchmarkLog extends SystemStreamLog {
+
+    @Override
+    public boolean isInfoEnabled() {
+        return false;
+    }
+
+    @Override
+    public void info(CharSequence content) {
+    }
+
+    @Override
+    public void info(CharSequence content, Throwable error) {
+    }
+
+    @Override
+    public void info(Throwable error) {
+    }
+
+    @Override
+    public void debug(CharSequence content) {
+    }
+
+    @Override
+    public void debug(CharSequence content, Throwable error) {
+    }
+
+    @Override
+    public void debug(Throwable error) {
+    }
+}
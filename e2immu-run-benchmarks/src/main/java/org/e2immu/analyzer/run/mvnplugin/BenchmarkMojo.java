@@ -0,0 +1,83 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.DependencyResolutionException;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.ProjectDependenciesResolver;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.e2immu.language.inspection.api.resource.InputConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Path;
+
+/*
+The common part of the goals, outside Maven. The fields that Maven injects into a mojo are set by reflection,
+with the default values of their @Parameter annotations.
+ */
+public class BenchmarkMojo extends CommonMojo {
+
+    public BenchmarkMojo(Path projectRoot, SyntheticProject syntheticProject, ProjectDependenciesResolver resolver,
+                         boolean useInputConfigurationCache) {
+        setLog(new BenchmarkLog());
+        MavenProject project = newProject(projectRoot, syntheticProject);
+        set("project", project);
+        set("session", newSession());
+        set("dependenciesResolver", resolver);
+        set("workingDirectory", projectRoot.toString());
+        set("jmods", "java.base");
+        set("sourceEncoding", "UTF-8");
+        set("inputConfigurationCache", new File(project.getBuild().getDirectory(),
+                "e2immu/inputConfiguration.cache.json"));
+        set("useInputConfigurationCache", useInputConfigurationCache);
+        set("reuseParseResult", false);
+        set("skipUnchangedOutput", false);
+        set("phaseReport", "none");
+        set("jarIndexCacheSize", 2000);
+    }
+
+    public static MavenProject newProject(Path projectRoot, SyntheticProject syntheticProject) {
+        MavenProject project = new MavenProject();
+        project.setGroupId(SyntheticProject.GROUP_ID);
+        project.setArtifactId("app");
+        project.setVersion("1.0");
+        project.setName("app");
+        project.setFile(projectRoot.resolve("pom.xml").toFile());
+        project.getBuild().setDirectory(projectRoot.resolve("target").toString());
+        project.addCompileSourceRoot(syntheticProject.mainSources(projectRoot).toString());
+        project.addTestCompileSourceRoot(syntheticProject.testSources(projectRoot).toString());
+        return project;
+    }
+
+    @SuppressWarnings("deprecation")
+    public static MavenSession newSession() {
+        return new MavenSession(null, new DefaultRepositorySystemSession(), new DefaultMavenExecutionRequest(),
+                new DefaultMavenExecutionResult());
+    }
+
+    private void set(String name, Object value) {
+        try {
+            Field field = CommonMojo.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(this, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set " + name, e);
+        }
+    }
+
+    // the benchmarks call the parts of the goals directly; there is no goal to run
+    @Override
+    public void execute() {
+    }
+
+    public InputConfiguration inputConfiguration() throws DependencyResolutionException {
+        return makeInputConfiguration();
+    }
+
+    public ParseSourcesResult parse(InputConfiguration inputConfiguration) throws IOException {
+        return parseSources(inputConfiguration, false);
+    }
+}
@@ -0,0 +1,74 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.DependencyResolutionException;
+import org.apache.maven.project.MavenProject;
+import org.e2immu.analyzer.run.config.util.ComputeDependencies;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/*
+From the resolved dependency tree to source sets. "cold" sees a new project on every call, and walks a tree
+that has just been resolved; "warm" reuses the project, as the second goal on a project in one session does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ComputeSourceSetsBenchmark {
+
+    // 5 and 7 give trees of 6,050 and 54,650 nodes at width 50
+    @Param({"3", "5", "7"})
+    public int depth;
+
+    @Param({"10", "50"})
+    public int width;
+
+    @Param({"3"})
+    public int fanOut;
+
+    private Path root;
+    private SyntheticProject syntheticProject;
+    private StubDependenciesResolver resolver;
+    private MavenSession session;
+    private MavenProject warmProject;
+    private final BenchmarkLog log = new BenchmarkLog();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("computeSourceSets");
+        syntheticProject = new SyntheticProject(10, 2, 2, depth, width, fanOut, 42);
+        syntheticProject.writeSources(root);
+        resolver = new StubDependenciesResolver(syntheticProject.dependencyTree(root.resolve("repository")));
+        session = BenchmarkMojo.newSession();
+        warmProject = BenchmarkMojo.newProject(root, syntheticProject);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticProject.delete(root);
+    }
+
+    @Benchmark
+    public ComputeDependencies.SourceSetDependencies cold() throws DependencyResolutionException {
+        return compute(BenchmarkMojo.newProject(root, syntheticProject));
+    }
+
+    @Benchmark
+    public ComputeDependencies.SourceSetDependencies warm() throws DependencyResolutionException {
+        return compute(warmProject);
+    }
+
+    private ComputeDependencies.SourceSetDependencies compute(MavenProject project)
+            throws DependencyResolutionException {
+        return new ComputeSourceSets(root.toFile(), resolver, project, session, log, new Phases("benchmark", log))
+                .compute("UTF-8", "", "", Set.of());
+    }
+}
@@ -0,0 +1,56 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+Writing the histograms of the statistics goal. Keys look like the fully qualified method names of a real
+histogram; counts follow a power law, as call frequencies do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistogramWriterBenchmark {
+
+    @Param({"10000", "200000"})
+    public int entries;
+
+    @Param({"text", "gzip", "binary"})
+    public String format;
+
+    @Param({"0", "100"})
+    public int topN;
+
+    private Histogram histogram;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        histogram = new Histogram();
+        for (int i = 0; i < entries; ++i) {
+            String key = "synthetic.p" + i / 500 + ".C" + i / 10 + ".m" + i % 10 + "(int," + "java.lang.String)";
+            histogram.add(key, 1 + (int) (1000.0 / Math.pow(1 + random.nextInt(entries), 0.8)));
+        }
+        file = Files.createTempFile("histogram", ".txt").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        new HistogramWriter(HistogramWriter.Format.from(format), topN).write(histogram, file);
+        return file.length();
+    }
+}
@@ -0,0 +1,55 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.project.DependencyResolutionException;
+import org.e2immu.language.inspection.api.resource.InputConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/*
+CommonMojo.makeInputConfiguration: source sets, Java modules and the linearization of the source set graph,
+with and without the on-disk cache of the input configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InputConfigurationBenchmark {
+
+    @Param({"3", "5"})
+    public int depth;
+
+    @Param({"10", "50"})
+    public int width;
+
+    @Param({"false", "true"})
+    public boolean useCache;
+
+    private Path root;
+    private BenchmarkMojo mojo;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("inputConfiguration");
+        SyntheticProject syntheticProject = new SyntheticProject(10, 2, 2, depth, width, 3, 42);
+        syntheticProject.writeSources(root);
+        StubDependenciesResolver resolver = new StubDependenciesResolver(
+                syntheticProject.dependencyTree(root.resolve("repository")));
+        mojo = new BenchmarkMojo(root, syntheticProject, resolver, useCache);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticProject.delete(root);
+    }
+
+    @Benchmark
+    public InputConfiguration makeInputConfiguration() throws DependencyResolutionException {
+        return mojo.inputConfiguration();
+    }
+}
@@ -0,0 +1,61 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.e2immu.language.cst.api.info.MethodInfo;
+import org.e2immu.language.cst.api.info.TypeInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/*
+Work done on the parse result by the statistics and write-annotated-apis goals. The synthetic sources are parsed
+once per trial; only the computations on the parse result are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MethodCallFrequenciesBenchmark {
+
+    @Param({"200", "1000"})
+    public int classes;
+
+    @Param({"4", "16"})
+    public int callDensity;
+
+    private Path root;
+    private CommonMojo.ParseSourcesResult parseSourcesResult;
+    private Set<MethodInfo> calledMethods;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("methodCallFrequencies");
+        SyntheticProject syntheticProject = new SyntheticProject(classes, 5, callDensity, 0, 0, 0, 42);
+        syntheticProject.writeSources(root);
+        StubDependenciesResolver resolver = new StubDependenciesResolver(
+                syntheticProject.dependencyTree(root.resolve("repository")));
+        BenchmarkMojo mojo = new BenchmarkMojo(root, syntheticProject, resolver, false);
+        parseSourcesResult = mojo.parse(mojo.inputConfiguration());
+        calledMethods = MethodCallFrequencies.compute(parseSourcesResult.parseResult()).frequencies().keySet();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticProject.delete(root);
+    }
+
+    @Benchmark
+    public MethodCallFrequencies methodCallFrequencies() {
+        return MethodCallFrequencies.compute(parseSourcesResult.parseResult());
+    }
+
+    @Benchmark
+    public Set<TypeInfo> computeAcceptedTypes() {
+        return WriteAnnotatedAPIsMojo.computeAcceptedTypes(calledMethods);
+    }
+}
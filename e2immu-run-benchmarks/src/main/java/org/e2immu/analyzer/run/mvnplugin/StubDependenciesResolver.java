@@ -0,0 +1,72 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.project.DependencyResolutionRequest;
+import org.apache.maven.project.DependencyResolutionResult;
+import org.apache.maven.project.ProjectDependenciesResolver;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Hands out a fixed dependency tree, and counts how often it is asked to resolve.
+ */
+public class StubDependenciesResolver implements ProjectDependenciesResolver {
+    private final DependencyNode root;
+    private final AtomicInteger resolutions = new AtomicInteger();
+
+    public StubDependenciesResolver(DependencyNode root) {
+        this.root = root;
+    }
+
+    public int resolutions() {
+        return resolutions.get();
+    }
+
+    @Override
+    public DependencyResolutionResult resolve(DependencyResolutionRequest request) {
+        resolutions.incrementAndGet();
+        List<Dependency> dependencies = new ArrayList<>();
+        collect(root, dependencies);
+        return new DependencyResolutionResult() {
+            @Override
+            public DependencyNode getDependencyGraph() {
+                return root;
+            }
+
+            @Override
+            public List<Dependency> getDependencies() {
+                return dependencies;
+            }
+
+            @Override
+            public List<Dependency> getResolvedDependencies() {
+                return dependencies;
+            }
+
+            @Override
+            public List<Dependency> getUnresolvedDependencies() {
+                return List.of();
+            }
+
+            @Override
+            public List<Exception> getCollectionErrors() {
+                return List.of();
+            }
+
+            @Override
+            public List<Exception> getResolutionErrors(Dependency dependency) {
+                return List.of();
+            }
+        };
+    }
+
+    private static void collect(DependencyNode node, List<Dependency> dependencies) {
+        for (DependencyNode child : node.getChildren()) {
+            if (child.getDependency() != null) dependencies.add(child.getDependency());
+            collect(child, dependencies);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.DefaultDependencyNode;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.util.artifact.JavaScopes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/*
+A generated Maven project: sources with a controllable number of classes and method calls, and a dependency tree
+with a controllable depth and width. Generation is deterministic for a given seed.
+
+Sources: classes are spread over packages of PACKAGE_SIZE classes. Every class has methodsPerClass static methods;
+every method makes callDensity calls to methods of other classes, and one in four of those calls goes to the JDK.
+One test class per ten main classes calls into the main classes.
+
+Dependencies: level 1 holds the direct dependencies of the project, width artifacts in scopes compile, test,
+provided and runtime. Every artifact of level l < depth depends on fanOut artifacts of level l + 1. As in the
+trees that Maven resolves, an artifact reached along several paths appears once per path.
+ */
+public record SyntheticProject(int classes, int methodsPerClass, int callDensity,
+                               int depth, int width, int fanOut, long seed) {
+    public static final String GROUP_ID = "org.e2immu.synthetic";
+    public static final int PACKAGE_SIZE = 50;
+    private static final String[] SCOPES = {JavaScopes.COMPILE, JavaScopes.COMPILE, JavaScopes.TEST,
+            JavaScopes.PROVIDED, JavaScopes.RUNTIME};
+    private static final String[] JDK_CALLS = {"java.util.Objects.hash(r)", "String.valueOf(r).length()",
+            "Math.abs(r)", "java.util.List.of(r).size()", "Integer.bitCount(r)"};
+
+    public Path mainSources(Path root) {
+        return root.resolve("src/main/java");
+    }
+
+    public Path testSources(Path root) {
+        return root.resolve("src/test/java");
+    }
+
+    public void writeSources(Path root) throws IOException {
+        Random random = new Random(seed);
+        for (int c = 0; c < classes; ++c) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("package ").append(packageName(c)).append(";\n\npublic class C").append(c).append(" {\n");
+            for (int m = 0; m < methodsPerClass; ++m) {
+                sb.append("    public static int m").append(m).append("(int x) {\n        int r = x;\n");
+                for (int k = 0; k < callDensity; ++k) {
+                    sb.append("        r += ");
+                    if (k % 4 == 3) {
+                        sb.append(JDK_CALLS[random.nextInt(JDK_CALLS.length)]);
+                    } else {
+                        int target = random.nextInt(classes);
+                        sb.append(packageName(target)).append(".C").append(target)
+                                .append(".m").append(random.nextInt(methodsPerClass)).append("(r - 1)");
+                    }
+                    sb.append(";\n");
+                }
+                sb.append("        return r;\n    }\n\n");
+            }
+            sb.append("}\n");
+            write(mainSources(root), packageName(c), "C" + c, sb);
+        }
+        for (int t = 0; t < Math.max(1, classes / 10); ++t) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("package ").append(packageName(t)).append(";\n\npublic class T").append(t).append(" {\n");
+            sb.append("    public int test() {\n        int r = 0;\n");
+            for (int k = 0; k < callDensity; ++k) {
+                int target = random.nextInt(classes);
+                sb.append("        r += ").append(packageName(target)).append(".C").append(target)
+                        .append(".m").append(random.nextInt(methodsPerClass)).append("(r);\n");
+            }
+            sb.append("        return r;\n    }\n}\n");
+            write(testSources(root), packageName(t), "T" + t, sb);
+        }
+    }
+
+    private static String packageName(int c) {
+        return "synthetic.p" + c / PACKAGE_SIZE;
+    }
+
+    private static void write(Path sourceRoot, String packageName, String simpleName, CharSequence content)
+            throws IOException {
+        Path directory = sourceRoot.resolve(packageName.replace('.', '/'));
+        Files.createDirectories(directory);
+        Files.writeString(directory.resolve(simpleName + ".java"), content, StandardCharsets.UTF_8);
+    }
+
+    /*
+    Every jar holds one empty class, in a package of its own: valid, so that the inspector can open it,
+    and not empty, so that it is kept on the class path.
+     */
+    public DependencyNode dependencyTree(Path repository) throws IOException {
+        List<List<Artifact>> levels = new ArrayList<>();
+        for (int level = 1; level <= depth; ++level) {
+            List<Artifact> artifacts = new ArrayList<>();
+            for (int i = 0; i < width; ++i) {
+                String artifactId = "lib-" + level + "-" + i;
+                Path jar = repository.resolve(GROUP_ID.replace('.', '/')).resolve(artifactId).resolve("1.0")
+                        .resolve(artifactId + "-1.0.jar");
+                if (!Files.isRegularFile(jar)) writeJar(jar, "synthetic/lib" + level + "_" + i + "/Marker");
+                artifacts.add(new DefaultArtifact(GROUP_ID, artifactId, "jar", "1.0").setFile(jar.toFile()));
+            }
+            levels.add(artifacts);
+        }
+        DefaultDependencyNode root = new DefaultDependencyNode(new DefaultArtifact(GROUP_ID, "app", "jar", "1.0"));
+        List<DependencyNode> children = new ArrayList<>();
+        for (int i = 0; i < width; ++i) {
+            children.add(node(levels, 1, i, SCOPES[i % SCOPES.length]));
+        }
+        root.setChildren(children);
+        return root;
+    }
+
+    private DependencyNode node(List<List<Artifact>> levels, int level, int index, String scope) {
+        Artifact artifact = levels.get(level - 1).get(index);
+        DefaultDependencyNode node = new DefaultDependencyNode(new Dependency(artifact, scope));
+        if (level < depth) {
+            List<DependencyNode> children = new ArrayList<>();
+            for (int j = 0; j < fanOut; ++j) {
+                children.add(node(levels, level + 1, (index * 31 + j * 17) % width, scope));
+            }
+            node.setChildren(children);
+        }
+        return node;
+    }
+
+    private static void writeJar(Path jar, String className) throws IOException {
+        Files.createDirectories(jar.getParent());
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        try (OutputStream out = Files.newOutputStream(jar); JarOutputStream jarOut = new JarOutputStream(out, manifest)) {
+            jarOut.putNextEntry(new JarEntry(className + ".class"));
+            jarOut.write(emptyClass(className));
+            jarOut.closeEntry();
+        }
+    }
+
+    // public class <className> extends Object, without members, in class file version 52
+    private static byte[] emptyClass(String className) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            out.writeShort(5);
+            out.writeByte(7);
+            out.writeShort(2);
+            out.writeByte(1);
+            out.writeUTF(className);
+            out.writeByte(7);
+            out.writeShort(4);
+            out.writeByte(1);
+            out.writeUTF("java/lang/Object");
+            out.writeShort(0x0021);
+            out.writeShort(1);
+            out.writeShort(3);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+        return bytes.toByteArray();
+    }
+
+    public int dependencyNodes() {
+        int total = 0;
+        int atLevel = width;
+        for (int level = 1; level <= depth; ++level) {
+            total += atLevel;
+            atLevel *= fanOut;
+        }
+        return total;
+    }
+
+    public static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> stream = Files.walk(root)) {
+            for (Path p : stream.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/*
+Merges the histograms written by the statistics goal in every module of the reactor into repository-wide
+histograms, without parsing any sources.
+
+This is an aggregator goal: it runs once, after the preceding goals of the command line have run in all modules,
+e.g. "mvn compile e2immu-analyzer:statistics e2immu-analyzer:aggregate-statistics".
+
+Each module file is sorted by key into a run on disk; the runs are then combined in a k-way merge, so that at most
+one module's histogram is held in memory before the merge. The merged entries, which come by key, are spilled in
+chunks sorted by decreasing count; a second k-way merge of those chunks streams the entries into the output
+in HistogramWriter's order.
+
+Module files written with topN > 0 hold only part of the module's histogram; they are refused, because the totals
+would silently be wrong.
+ */
+@Mojo(name = AggregateStatisticsMojo.AGGREGATE_STATISTICS_GOAL, aggregator = true, threadSafe = true)
+public class AggregateStatisticsMojo extends AbstractMojo {
+    public static final String AGGREGATE_STATISTICS_GOAL = "aggregate-statistics";
+
+    private static final List<String> HISTOGRAMS = List.of("methodCallFrequencies",
+            "methodCallFrequenciesBySourceSet", "methodCallFrequenciesMain", "methodCallFrequenciesMainBySourceSet",
+            "methodCallFrequenciesTest", "methodCallFrequenciesTestBySourceSet");
+
+    @Parameter(defaultValue = "${reactorProjects}", readonly = true, required = true)
+    private List<MavenProject> reactorProjects;
+
+    @Parameter(property = "aggregateOutputDirectory", defaultValue = "${project.build.directory}/aggregatedStatistics")
+    private File aggregateOutputDirectory;
+
+    // extension of the per-module histogram files, and of the aggregated ones
+    @Parameter(property = "histogramExtension", defaultValue = ".txt")
+    private String histogramExtension;
+
+    @Parameter(property = "histogramFormat", defaultValue = "text")
+    private String histogramFormat;
+
+    @Parameter(property = "topN", defaultValue = "0")
+    private int topN;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        try {
+            if (aggregateOutputDirectory.mkdirs()) {
+                getLog().info("Created " + aggregateOutputDirectory.getAbsolutePath());
+            }
+            File runDirectory = Files.createTempDirectory(aggregateOutputDirectory.toPath(), "runs").toFile();
+            try {
+                for (String histogram : HISTOGRAMS) {
+                    aggregate(histogram, runDirectory);
+                }
+            } finally {
+                File[] runs = runDirectory.listFiles();
+                if (runs != null) for (File run : runs) Files.deleteIfExists(run.toPath());
+                Files.deleteIfExists(runDirectory.toPath());
+            }
+        } catch (RuntimeException | IOException e) {
+            throw new MojoExecutionException("Failed to aggregate statistics", e);
+        }
+    }
+
+    private void aggregate(String histogramName, File runDirectory) throws IOException {
+        List<File> runs = new ArrayList<>();
+        for (MavenProject module : reactorProjects) {
+            File file = new File(module.getBuild().getDirectory(), histogramName + histogramExtension);
+            if (file.isFile()) {
+                File run = new File(runDirectory, histogramName + "-" + runs.size() + ".run");
+                writeSortedRun(file, run);
+                runs.add(run);
+            } else {
+                getLog().debug("No " + file.getName() + " in " + module.getId());
+            }
+        }
+        List<File> byCount = new ArrayList<>();
+        int entries = mergeByKey(runs, new ChunkSpiller(runDirectory, histogramName, byCount));
+        int selected = topN > 0 ? Math.min(topN, entries) : entries;
+        File output = new File(aggregateOutputDirectory, histogramName + histogramExtension);
+        try (HistogramWriter.EntryWriter writer = new HistogramWriter(HistogramWriter.Format.from(histogramFormat),
+                topN).open(output, selected, entries)) {
+            mergeByCount(byCount, selected, writer);
+        }
+        getLog().info("Aggregated " + runs.size() + " module histogram(s) into " + output + ", "
+                      + entries + " entries");
+    }
+
+    // a run: the number of entries, then the entries sorted by key
+    private static void writeSortedRun(File histogramFile, File run) throws IOException {
+        Histogram histogram = new Histogram();
+        int[] entries = new int[1];
+        int total = HistogramReader.read(histogramFile, (key, count) -> {
+            histogram.add(key, count);
+            ++entries[0];
+        });
+        if (total > entries[0]) {
+            throw new IOException(histogramFile + " holds the top " + entries[0] + " of " + total
+                                  + " entries; run the statistics goal with topN=0 before aggregating");
+        }
+        String[] keys = new String[histogram.size()];
+        for (int slot = 0; slot < keys.length; ++slot) keys[slot] = histogram.key(slot);
+        Arrays.sort(keys);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run.toPath())))) {
+            out.writeInt(keys.length);
+            for (String key : keys) {
+                out.writeUTF(key);
+                out.writeInt(histogram.count(key));
+            }
+        }
+    }
+
+    /*
+    Collects merged entries, which arrive by key, into chunks; each chunk is written as a run sorted by
+    decreasing count. Within a chunk, the index is the rank of the key, so an entry packs into a long,
+    as in HistogramWriter.
+     */
+    private static class ChunkSpiller implements HistogramReader.EntryConsumer, Closeable {
+        private static final int CHUNK_SIZE = 1 << 16;
+
+        private final File runDirectory;
+        private final String prefix;
+        private final List<File> runs;
+        private final String[] keys = new String[CHUNK_SIZE];
+        private final int[] counts = new int[CHUNK_SIZE];
+        private int size;
+
+        ChunkSpiller(File runDirectory, String prefix, List<File> runs) {
+            this.runDirectory = runDirectory;
+            this.prefix = prefix;
+            this.runs = runs;
+        }
+
+        @Override
+        public void accept(String key, int count) throws IOException {
+            keys[size] = key;
+            counts[size] = count;
+            if (++size == CHUNK_SIZE) spill();
+        }
+
+        private void spill() throws IOException {
+            long[] packed = new long[size];
+            for (int i = 0; i < size; ++i) packed[i] = ((long) (Integer.MAX_VALUE - counts[i]) << 32) | i;
+            Arrays.sort(packed);
+            File run = new File(runDirectory, prefix + "-count-" + runs.size() + ".run");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run.toPath())))) {
+                out.writeInt(size);
+                for (long p : packed) {
+                    out.writeUTF(keys[(int) p]);
+                    out.writeInt(counts[(int) p]);
+                }
+            }
+            runs.add(run);
+            Arrays.fill(keys, 0, size, null);
+            size = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (size > 0) spill();
+        }
+    }
+
+    private static class Cursor implements Closeable {
+        private final DataInputStream in;
+        private int remaining;
+        String key;
+        int count;
+
+        Cursor(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.toPath())));
+            remaining = in.readInt();
+        }
+
+        boolean advance() throws IOException {
+            if (remaining == 0) return false;
+            --remaining;
+            key = in.readUTF();
+            count = in.readInt();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // returns the number of distinct keys
+    private static int mergeByKey(List<File> runs, ChunkSpiller spiller) throws IOException {
+        int entries = 0;
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(Math.max(1, runs.size()),
+                Comparator.comparing(c -> c.key));
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (File run : runs) {
+                Cursor cursor = new Cursor(run);
+                cursors.add(cursor);
+                if (cursor.advance()) queue.add(cursor);
+            }
+            while (!queue.isEmpty()) {
+                Cursor head = queue.poll();
+                String key = head.key;
+                int sum = head.count;
+                if (head.advance()) queue.add(head);
+                while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+                    Cursor next = queue.poll();
+                    sum += next.count;
+                    if (next.advance()) queue.add(next);
+                }
+                spiller.accept(key, sum);
+                ++entries;
+            }
+            spiller.close();
+        } finally {
+            for (Cursor cursor : cursors) cursor.close();
+        }
+        return entries;
+    }
+
+    // decreasing count, ties by key: the order of HistogramWriter
+    private static final Comparator<Cursor> BY_COUNT = Comparator.<Cursor>comparingInt(c -> c.count).reversed()
+            .thenComparing(c -> c.key);
+
+    private static void mergeByCount(List<File> runs, int limit, HistogramWriter.EntryWriter writer)
+            throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(Math.max(1, runs.size()), BY_COUNT);
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (File run : runs) {
+                Cursor cursor = new Cursor(run);
+                cursors.add(cursor);
+                if (cursor.advance()) queue.add(cursor);
+            }
+            for (int written = 0; written < limit && !queue.isEmpty(); ++written) {
+                Cursor head = queue.poll();
+                writer.write(head.key, head.count);
+                if (head.advance()) queue.add(head);
+            }
+        } finally {
+            for (Cursor cursor : cursors) cursor.close();
+        }
+    }
+}
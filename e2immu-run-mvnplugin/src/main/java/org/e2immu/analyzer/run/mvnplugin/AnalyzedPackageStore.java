@@ -0,0 +1,292 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/*
+All analyzed package files (.json) of a number of archives, in one file that is memory-mapped for reading.
+
+Layout, big-endian: magic "E2AP", version, the specs of the archives and the key of their content (both as
+int length and UTF-8 bytes), number of archives a, number of entries n, then n index records (archive,
+name offset, name length, content offset, content length) sorted by name, then the UTF-8 names, then the contents.
+Entry names are the paths relative to the root of their archive.
+
+The key fingerprints the archives the store was compiled from: the jar that holds them, or their files.
+A store whose archives have changed since, e.g. after an upgrade of the analyzer or of the JDK, is stale.
+
+Reading only touches the index; the content of an entry is copied out of the mapping when it is materialized.
+LoadAnalyzedPackageFiles reads directories only, so the selected entries are materialized before loading:
+the store saves reading, and decoding, the packages that the sources do not reach.
+ */
+public class AnalyzedPackageStore {
+    private static final int MAGIC = 0x45324150;
+    private static final int VERSION = 2;
+    private static final String JSON = ".json";
+
+    private final MappedByteBuffer buffer;
+    private final List<String> specs;
+    private final String key;
+    private final Set<String> packages;
+    private final int archives;
+    private final String[] names;
+    private final int[] archiveOfEntry;
+    private final long[] contentOffsets;
+    private final int[] contentLengths;
+
+    private AnalyzedPackageStore(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not an analyzed package store, or unsupported version");
+        }
+        String specsString = getString(buffer);
+        specs = specsString.isEmpty() ? List.of() : List.of(specsString.split("\n"));
+        key = getString(buffer);
+        archives = buffer.getInt();
+        int n = buffer.getInt();
+        names = new String[n];
+        archiveOfEntry = new int[n];
+        contentOffsets = new long[n];
+        contentLengths = new int[n];
+        int[] nameOffsets = new int[n];
+        int[] nameLengths = new int[n];
+        for (int i = 0; i < n; ++i) {
+            archiveOfEntry[i] = buffer.getInt();
+            nameOffsets[i] = buffer.getInt();
+            nameLengths[i] = buffer.getInt();
+            contentOffsets[i] = buffer.getLong();
+            contentLengths[i] = buffer.getInt();
+        }
+        int namesStart = buffer.position();
+        for (int i = 0; i < n; ++i) {
+            byte[] bytes = new byte[nameLengths[i]];
+            buffer.get(namesStart + nameOffsets[i], bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        Set<String> packageNames = new HashSet<>();
+        for (String name : names) {
+            String packageName = packageName(name);
+            if (packageName != null) packageNames.add(packageName);
+        }
+        packages = Set.copyOf(packageNames);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static AnalyzedPackageStore open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Store too large: " + file);
+            return new AnalyzedPackageStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public List<String> specs() {
+        return specs;
+    }
+
+    // the packages that have an entry in the store
+    public Set<String> packages() {
+        return packages;
+    }
+
+    /*
+    Returns null when the archives the store was compiled from are unchanged, and the reason otherwise.
+     */
+    public String staleness(ClassLoader classLoader) {
+        String current;
+        try {
+            current = key(specs, classLoader);
+        } catch (IOException | RuntimeException e) {
+            return "cannot read its analyzed package files anymore: " + e.getMessage();
+        }
+        return key.equals(current) ? null : "its analyzed package files " + specs + " changed since it was compiled";
+    }
+
+    public static String key(List<String> specs, ClassLoader classLoader) throws IOException {
+        Fingerprints fingerprints = new Fingerprints();
+        for (String spec : specs) {
+            try (Archive archive = resolveArchive(spec, classLoader)) {
+                fingerprints.add(spec).add(archive.stamp());
+            }
+        }
+        return fingerprints.hash();
+    }
+
+    /*
+    Writes the selected entries into one sub-directory per archive, and returns those directories,
+    in the order of the archives, as input for LoadAnalyzedPackageFiles.
+     */
+    public List<String> materialize(Predicate<String> selectName, Path directory) throws IOException {
+        List<String> directories = new ArrayList<>();
+        for (int a = 0; a < archives; ++a) {
+            Path archiveDirectory = directory.resolve(Integer.toString(a));
+            Files.createDirectories(archiveDirectory);
+            directories.add(archiveDirectory.toAbsolutePath().toString());
+        }
+        for (int i = 0; i < names.length; ++i) {
+            if (selectName.test(names[i])) {
+                Path target = directory.resolve(Integer.toString(archiveOfEntry[i])).resolve(names[i]);
+                Files.createDirectories(target.getParent());
+                byte[] content = new byte[contentLengths[i]];
+                buffer.get((int) contentOffsets[i], content);
+                Files.write(target, content);
+            }
+        }
+        return directories;
+    }
+
+    public List<String> names() {
+        return List.of(names);
+    }
+
+    private record Entry(int archive, String name, Path path) {
+    }
+
+    public static int compile(List<String> specs, List<Archive> archives, File storeFile) throws IOException {
+        List<Path> archiveRoots = archives.stream().map(Archive::root).toList();
+        Fingerprints fingerprints = new Fingerprints();
+        for (int a = 0; a < specs.size(); ++a) fingerprints.add(specs.get(a)).add(archives.get(a).stamp());
+        byte[] specsBytes = String.join("\n", specs).getBytes(StandardCharsets.UTF_8);
+        byte[] keyBytes = fingerprints.hash().getBytes(StandardCharsets.UTF_8);
+        List<Entry> entries = new ArrayList<>();
+        for (int a = 0; a < archiveRoots.size(); ++a) {
+            Path root = archiveRoots.get(a);
+            try (Stream<Path> stream = Files.walk(root)) {
+                for (Path path : stream.filter(p -> p.toString().endsWith(JSON)).toList()) {
+                    entries.add(new Entry(a, root.relativize(path).toString().replace('\\', '/'), path));
+                }
+            }
+        }
+        entries.sort(Comparator.comparing(Entry::name).thenComparing(Entry::archive));
+        byte[][] nameBytes = new byte[entries.size()][];
+        int namesLength = 0;
+        long contentsLength = 0;
+        int[] contentLengths = new int[entries.size()];
+        for (int i = 0; i < entries.size(); ++i) {
+            nameBytes[i] = entries.get(i).name().getBytes(StandardCharsets.UTF_8);
+            namesLength += nameBytes[i].length;
+            contentLengths[i] = (int) Files.size(entries.get(i).path());
+            contentsLength += contentLengths[i];
+        }
+        long contentsStart = 24L + specsBytes.length + keyBytes.length + 24L * entries.size() + namesLength;
+        if (contentsStart + contentsLength > Integer.MAX_VALUE) {
+            throw new IOException("Analyzed package files too large for one store");
+        }
+        Files.createDirectories(storeFile.getAbsoluteFile().getParentFile().toPath());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(storeFile.toPath()), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(specsBytes.length);
+            out.write(specsBytes);
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+            out.writeInt(archiveRoots.size());
+            out.writeInt(entries.size());
+            int nameOffset = 0;
+            long contentOffset = contentsStart;
+            for (int i = 0; i < entries.size(); ++i) {
+                out.writeInt(entries.get(i).archive());
+                out.writeInt(nameOffset);
+                out.writeInt(nameBytes[i].length);
+                out.writeLong(contentOffset);
+                out.writeInt(contentLengths[i]);
+                nameOffset += nameBytes[i].length;
+                contentOffset += contentLengths[i];
+            }
+            for (byte[] bytes : nameBytes) out.write(bytes);
+            for (Entry entry : entries) Files.copy(entry.path(), out);
+        }
+        return entries.size();
+    }
+
+    /*
+    The root of an archive of analyzed package files, with the stamp of the jar or directory that holds it.
+    Closing it closes the zip file system that was opened to read inside a jar.
+     */
+    public record Archive(Path root, String stamp, FileSystem fileSystem) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            if (fileSystem != null) fileSystem.close();
+        }
+    }
+
+    /*
+    The analyzed package archives are given as directories, or as resources on the class path of the plugin,
+    possibly with a scheme prefix such as "jar-on-classpath:". Resources inside a jar are read through
+    a zip file system, owned by the returned archive unless it was already open.
+     */
+    public static Archive resolveArchive(String spec, ClassLoader classLoader) throws IOException {
+        try {
+            Path asPath = Path.of(spec);
+            if (Files.isDirectory(asPath)) return new Archive(asPath, Fingerprints.stamp(asPath.toFile()), null);
+        } catch (InvalidPathException e) {
+            // not a directory; try the class path
+        }
+        String resource = spec.substring(spec.indexOf(':') + 1);
+        while (resource.startsWith("/")) resource = resource.substring(1);
+        URL url = classLoader.getResource(resource);
+        if (url == null) throw new FileNotFoundException("Cannot find analyzed packages " + spec);
+        try {
+            URI uri = url.toURI();
+            if ("jar".equals(uri.getScheme())) {
+                String jar = uri.getSchemeSpecificPart();
+                int bang = jar.indexOf("!/");
+                String stamp = Fingerprints.stamp(new File(URI.create(bang < 0 ? jar : jar.substring(0, bang))));
+                FileSystem fileSystem;
+                try {
+                    fileSystem = FileSystems.newFileSystem(uri, Map.of());
+                } catch (FileSystemAlreadyExistsException e) {
+                    return new Archive(FileSystems.getFileSystem(uri).getPath(resource), stamp, null);
+                }
+                return new Archive(fileSystem.getPath(resource), stamp, fileSystem);
+            }
+            Path path = Path.of(uri);
+            return new Archive(path, Fingerprints.stamp(path.toFile()), null);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Cannot resolve analyzed packages " + spec, e);
+        }
+    }
+
+    /*
+    Analyzed package files are written per package, and named after it. An entry whose file name is not
+    a package name is selected when includeOthers is true: the first time entries are selected from the store.
+     */
+    public static Predicate<String> selectPackages(Set<String> packages, boolean includeOthers) {
+        return name -> {
+            String packageName = packageName(name);
+            return packageName == null ? includeOthers : packages.contains(packageName);
+        };
+    }
+
+    // null when the entry is not named after a package
+    private static String packageName(String name) {
+        String fileName = name.substring(name.lastIndexOf('/') + 1);
+        String stem = fileName.endsWith(JSON) ? fileName.substring(0, fileName.length() - JSON.length())
+                : fileName;
+        return stem.matches("[a-z_][a-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)*") ? stem : null;
+    }
+}
@@ -0,0 +1,122 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.e2immu.analyzer.modification.io.LoadAnalyzedPackageFiles;
+import org.e2immu.analyzer.modification.linkedvariables.io.LinkedVariablesCodec;
+import org.e2immu.language.cst.api.analysis.Codec;
+import org.e2immu.language.cst.api.info.TypeInfo;
+import org.e2immu.language.inspection.api.integration.JavaInspector;
+import org.e2immu.language.inspection.integration.ToolChain;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/*
+Loads the analyzed packages of the JDK and of common libraries into the types of one JavaInspector, and remembers
+what it loaded, so that the analyzer daemon can load them into a spare inspector before the request arrives.
+
+Without a store, all analyzed packages are loaded, as the analyzer always did. With a store, only the packages
+of the types loaded so far, and those asked for with withPackages; loadReached is called again when more types
+have been loaded. Packages that the modification analyzer reaches later are reported by unloaded, and
+AnalyzerRun then analyzes again, asking for them up front.
+ */
+public class AnalyzedPackagesLoader {
+    private final File analyzedPackageStore;
+    private final Set<String> packagesLoadedFromStore = new HashSet<>();
+    private final Set<String> packagesAskedFor = new HashSet<>();
+    private AnalyzedPackageStore store;
+    private boolean loaded;
+
+    public AnalyzedPackagesLoader(File analyzedPackageStore) {
+        this.analyzedPackageStore = analyzedPackageStore;
+    }
+
+    public AnalyzedPackagesLoader withPackages(Set<String> packages) {
+        packagesAskedFor.addAll(packages);
+        return this;
+    }
+
+    public Set<String> packagesLoadedFromStore() {
+        return Set.copyOf(packagesLoadedFromStore);
+    }
+
+    public boolean loaded() {
+        return loaded;
+    }
+
+    public void load(JavaInspector javaInspector, Log log) throws IOException {
+        if (loaded) return;
+        loaded = true;
+        if (analyzedPackageStore != null && analyzedPackageStore.isFile()) {
+            AnalyzedPackageStore opened = AnalyzedPackageStore.open(analyzedPackageStore);
+            String staleness = opened.staleness(getClass().getClassLoader());
+            if (staleness == null) {
+                if (!opened.specs().contains(ToolChain.currentJdkAnalyzedPackages())) {
+                    log.warn("Analyzed package store " + analyzedPackageStore + " was compiled from "
+                             + opened.specs() + ", not from those of the current JDK, "
+                             + ToolChain.currentJdkAnalyzedPackages());
+                }
+                store = opened;
+                loadReached(javaInspector, log);
+                return;
+            }
+            log.warn("Ignoring analyzed package store " + analyzedPackageStore + ": " + staleness
+                     + "; run the compile-analyzed-packages goal again. Loading all analyzed packages.");
+        }
+        new LoadAnalyzedPackageFiles().go(codec(javaInspector), List.of(ToolChain.currentJdkAnalyzedPackages(),
+                ToolChain.commonLibsAnalyzedPackages()));
+    }
+
+    /*
+    The packages of the loaded types that have not been loaded from the store yet. Called after parsing, and again
+    after the prep analyzer, which may load more types; the analysis is loaded before the modification analyzer runs.
+     */
+    public void loadReached(JavaInspector javaInspector, Log log) throws IOException {
+        if (store == null) return;
+        Set<String> packages = new HashSet<>(unloaded(javaInspector));
+        for (String packageName : packagesAskedFor) {
+            if (store.packages().contains(packageName) && !packagesLoadedFromStore.contains(packageName)) {
+                packages.add(packageName);
+            }
+        }
+        if (packages.isEmpty()) return;
+        Path directory = Files.createTempDirectory(analyzedPackageStore.getAbsoluteFile().getParentFile().toPath(),
+                "analyzedPackages");
+        try {
+            List<String> directories = store.materialize(AnalyzedPackageStore.selectPackages(packages,
+                    packagesLoadedFromStore.isEmpty()), directory);
+            new LoadAnalyzedPackageFiles().go(codec(javaInspector), directories);
+            packagesLoadedFromStore.addAll(packages);
+            log.info("Loaded analyzed packages for " + packages.size() + " packages from " + analyzedPackageStore
+                     + " (" + store.size() + " files in store)");
+        } finally {
+            try (Stream<Path> stream = Files.walk(directory)) {
+                for (Path p : stream.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+            }
+        }
+    }
+
+    /*
+    The packages in the store of the types loaded so far, whose analysis has not been loaded. After the
+    modification analyzer, these are the packages it reached without their analysis.
+     */
+    public Set<String> unloaded(JavaInspector javaInspector) {
+        if (store == null) return Set.of();
+        Set<String> packages = new TreeSet<>();
+        for (TypeInfo typeInfo : javaInspector.compiledTypesManager().typesLoaded()) {
+            String packageName = typeInfo.packageName();
+            if (store.packages().contains(packageName) && !packagesLoadedFromStore.contains(packageName)) {
+                packages.add(packageName);
+            }
+        }
+        return packages;
+    }
+
+    private static Codec codec(JavaInspector javaInspector) {
+        return new LinkedVariablesCodec(javaInspector.runtime()).codec();
+    }
+}
@@ -0,0 +1,428 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.e2immu.analyzer.run.config.util.JsonStreaming;
+import org.e2immu.language.inspection.api.integration.JavaInspector;
+import org.e2immu.language.inspection.api.parser.ParseResult;
+import org.e2immu.language.inspection.api.resource.InputConfiguration;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+A long-lived JVM that runs the analyzer for the run goal, so that repeated runs skip JIT warm-up and the loading
+of the JDK's types. Started by DaemonClient, on the class path of the plugin:
+
+  java -cp ... org.e2immu.analyzer.run.mvnplugin.AnalyzerDaemon <socket> <idle minutes> <plugin key>
+
+Protocol, over a Unix domain socket, in UTF-8 lines: the client sends one line with the request in JSON;
+the daemon answers with log lines "<LEVEL> <text>", newlines escaped, and a final line "END OK",
+"END FAILED <message>" or "END STALE" when the daemon runs another version of the plugin than the client.
+
+Requests of the same project are handled one at a time; different projects run concurrently. After each run,
+the daemon prepares an initialized JavaInspector for the next run of the project, with the analyzed packages already
+loaded: the analyzer writes its results into the types, so an inspector is never used twice. The spare depends on
+the class path and the analyzed package store, not on the content of the sources, see CommonMojo.inspectorKey.
+Projects that have been idle for the idle time are evicted; without projects, the daemon stops after the idle time.
+ */
+public class AnalyzerDaemon {
+    static final String END = "END";
+    static final String OK = "OK";
+    static final String FAILED = "FAILED";
+    static final String STALE = "STALE";
+
+    private final Path socket;
+    private final long idleMillis;
+    private final String pluginKey;
+    private final Log log;
+    private final ConcurrentHashMap<String, ProjectState> projects = new ConcurrentHashMap<>();
+    private final ExecutorService workers = Executors.newCachedThreadPool(daemonThreads("e2immu-daemon-worker"));
+    private final ScheduledExecutorService housekeeping = Executors.newSingleThreadScheduledExecutor(
+            daemonThreads("e2immu-daemon-housekeeping"));
+    private volatile long lastRequest = System.currentTimeMillis();
+    private volatile ServerSocketChannel server;
+
+    private record Spare(JavaInspector javaInspector, AnalyzedPackagesLoader analyzedPackagesLoader) {
+    }
+
+    private static class ProjectState {
+        final ReentrantLock lock = new ReentrantLock();
+        volatile long lastUsed = System.currentTimeMillis();
+        String spareKey;
+        Future<Spare> spare;
+
+        void discardSpare() {
+            if (spare != null) spare.cancel(true);
+            spare = null;
+        }
+    }
+
+    public AnalyzerDaemon(Path socket, long idleMillis, String pluginKey, Log log) {
+        this.socket = socket;
+        this.idleMillis = idleMillis;
+        this.pluginKey = pluginKey;
+        this.log = log;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Log log = new SystemStreamLog();
+        if (args.length != 3) {
+            log.error("Usage: AnalyzerDaemon <socket> <idle minutes> <plugin key>");
+            System.exit(1);
+        }
+        Path socket = Path.of(args[0]).toAbsolutePath();
+        Files.createDirectories(socket.getParent());
+        // at most one daemon per socket; a second one started concurrently simply stops
+        try (FileChannel lockChannel = FileChannel.open(Path.of(socket + ".lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE); FileLock lock = lockChannel.tryLock()) {
+            if (lock == null) {
+                log.info("Another daemon owns " + socket);
+                return;
+            }
+            new AnalyzerDaemon(socket, Long.parseLong(args[1]) * 60_000L, args[2], log).serve();
+        }
+    }
+
+    public void serve() throws IOException {
+        Files.deleteIfExists(socket);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        housekeeping.scheduleWithFixedDelay(this::evictIdleProjects, 30, 30, TimeUnit.SECONDS);
+        log.info("e2immu analyzer daemon listening on " + socket);
+        try {
+            while (server.isOpen()) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                }
+                lastRequest = System.currentTimeMillis();
+                workers.execute(() -> handle(channel));
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void shutdown() {
+        housekeeping.shutdownNow();
+        workers.shutdownNow();
+        projects.values().forEach(ProjectState::discardSpare);
+        try {
+            if (server != null) server.close();
+            Files.deleteIfExists(socket);
+        } catch (IOException e) {
+            log.warn("Cannot clean up " + socket + ": " + e.getMessage());
+        }
+    }
+
+    private void evictIdleProjects() {
+        long now = System.currentTimeMillis();
+        projects.forEach((projectId, state) -> {
+            if (now - state.lastUsed > idleMillis && state.lock.tryLock()) {
+                try {
+                    projects.remove(projectId);
+                    state.discardSpare();
+                    log.info("Evicted idle project " + projectId);
+                } finally {
+                    state.lock.unlock();
+                }
+            }
+        });
+        if (projects.isEmpty() && now - lastRequest > idleMillis) {
+            log.info("Idle, stopping");
+            try {
+                server.close();
+            } catch (IOException e) {
+                // accept() ends in any case
+            }
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                     StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel),
+                     StandardCharsets.UTF_8))) {
+            String line = in.readLine();
+            if (line == null) return;
+            Map<String, Object> request = JsonStreaming.objectMapper().readValue(line, new TypeReference<>() {
+            });
+            ResponseLog responseLog = new ResponseLog(out, Boolean.TRUE.equals(request.get("debug")));
+            if (!pluginKey.equals(request.get("pluginKey"))) {
+                responseLog.end(STALE);
+                housekeeping.execute(() -> {
+                    try {
+                        server.close();
+                    } catch (IOException e) {
+                        // accept() ends in any case
+                    }
+                });
+                return;
+            }
+            try {
+                run(request, responseLog);
+                responseLog.end(OK);
+            } catch (AnalyzerRun.AnalysisFailedException e) {
+                responseLog.end(FAILED + " " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                responseLog.end(FAILED + " interrupted");
+            } catch (UncheckedIOException e) {
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                responseLog.error(e);
+                responseLog.end(FAILED + " " + e);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Lost connection: " + e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run(Map<String, Object> request, ResponseLog log)
+            throws IOException, InterruptedException, AnalyzerRun.AnalysisFailedException {
+        String projectId = (String) request.get("projectId");
+        InputConfiguration inputConfiguration = JsonStreaming.objectMapper()
+                .readValue((String) request.get("inputConfiguration"), InputConfiguration.class);
+        AnalyzerRun.Settings settings = AnalyzerRun.Settings.fromMap((Map<String, String>) request.get("settings"));
+        boolean lazyClassPath = Boolean.TRUE.equals(request.get("lazyClassPath"));
+        File analyzedPackageStore = settings.analyzedPackageStore();
+        String spareKey = request.get("inspectorKey") + (lazyClassPath ? " lazy" : "") + " " + analyzedPackageStore
+                          + (analyzedPackageStore == null ? "" : " " + Fingerprints.stamp(analyzedPackageStore));
+
+        ProjectState state = projects.computeIfAbsent(projectId, id -> new ProjectState());
+        state.lock.lock();
+        try {
+            state.lastUsed = System.currentTimeMillis();
+            Phases phases = new Phases("run", log);
+            SourceParser sourceParser = new SourceParser(log, phases, lazyClassPath);
+            Spare spare = takeSpare(state, spareKey, log);
+            JavaInspector javaInspector = spare == null ? sourceParser.initialize(inputConfiguration)
+                    : spare.javaInspector();
+            AnalyzedPackagesLoader analyzedPackagesLoader = spare == null
+                    ? new AnalyzedPackagesLoader(analyzedPackageStore) : spare.analyzedPackagesLoader();
+            ParseResult parseResult = sourceParser.parse(javaInspector);
+            try {
+                new AnalyzerRun(settings, log, phases).withAnalyzedPackagesLoader(analyzedPackagesLoader)
+                        .withSourceParser(sourceParser)
+                        .run(new CommonMojo.ParseSourcesResult(parseResult, javaInspector, inputConfiguration));
+            } finally {
+                for (Phases.Measurement m : phases.measurements()) {
+                    log.info("Phase " + m.name() + ": " + m.wallNanos() / 1_000_000 + " ms");
+                }
+                state.spareKey = spareKey;
+                state.spare = workers.submit(() -> prepareSpare(inputConfiguration, lazyClassPath,
+                        analyzedPackageStore));
+                state.lastUsed = System.currentTimeMillis();
+            }
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    private static Spare prepareSpare(InputConfiguration inputConfiguration, boolean lazyClassPath,
+                                      File analyzedPackageStore) throws IOException {
+        Log quiet = new QuietLog();
+        JavaInspector javaInspector = new SourceParser(quiet, new Phases("spare", quiet), lazyClassPath)
+                .initialize(inputConfiguration);
+        AnalyzedPackagesLoader analyzedPackagesLoader = new AnalyzedPackagesLoader(analyzedPackageStore);
+        analyzedPackagesLoader.load(javaInspector, quiet);
+        return new Spare(javaInspector, analyzedPackagesLoader);
+    }
+
+    /*
+    The spare is only valid for the same class path, file names and analyzed package store; the spare key
+    covers them. Edits to the sources do not invalidate it: they are read when parsing.
+     */
+    private static Spare takeSpare(ProjectState state, String spareKey, Log log) {
+        Future<Spare> spare = state.spare;
+        state.spare = null;
+        if (spare == null) return null;
+        if (!spareKey.equals(state.spareKey)) {
+            spare.cancel(true);
+            return null;
+        }
+        try {
+            Spare prepared = spare.get();
+            log.info("Using a JavaInspector initialized by the daemon, with the analyzed packages loaded");
+            return prepared;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | CancellationException e) {
+            log.warn("Daemon could not prepare a JavaInspector: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "");
+    }
+
+    static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /*
+    Sends the log of a request to the client; analysis threads log concurrently.
+     */
+    static class ResponseLog implements Log {
+        private final Writer out;
+        private final boolean debug;
+
+        ResponseLog(Writer out, boolean debug) {
+            this.out = out;
+            this.debug = debug;
+        }
+
+        private synchronized void send(String level, CharSequence content, Throwable error) {
+            StringBuilder sb = new StringBuilder();
+            if (content != null) sb.append(content);
+            if (error != null) {
+                StringWriter sw = new StringWriter();
+                error.printStackTrace(new PrintWriter(sw));
+                if (!sb.isEmpty()) sb.append('\n');
+                sb.append(sw);
+            }
+            try {
+                out.write(level + " " + escape(sb.toString()) + "\n");
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        synchronized void end(String status) throws IOException {
+            out.write(END + " " + escape(status) + "\n");
+            out.flush();
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return debug;
+        }
+
+        @Override
+        public void debug(CharSequence content) {
+            if (debug) send("DEBUG", content, null);
+        }
+
+        @Override
+        public void debug(CharSequence content, Throwable error) {
+            if (debug) send("DEBUG", content, error);
+        }
+
+        @Override
+        public void debug(Throwable error) {
+            if (debug) send("DEBUG", null, error);
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return true;
+        }
+
+        @Override
+        public void info(CharSequence content) {
+            send("INFO", content, null);
+        }
+
+        @Override
+        public void info(CharSequence content, Throwable error) {
+            send("INFO", content, error);
+        }
+
+        @Override
+        public void info(Throwable error) {
+            send("INFO", null, error);
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return true;
+        }
+
+        @Override
+        public void warn(CharSequence content) {
+            send("WARN", content, null);
+        }
+
+        @Override
+        public void warn(CharSequence content, Throwable error) {
+            send("WARN", content, error);
+        }
+
+        @Override
+        public void warn(Throwable error) {
+            send("WARN", null, error);
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return true;
+        }
+
+        @Override
+        public void error(CharSequence content) {
+            send("ERROR", content, null);
+        }
+
+        @Override
+        public void error(CharSequence content, Throwable error) {
+            send("ERROR", content, error);
+        }
+
+        @Override
+        public void error(Throwable error) {
+            send("ERROR", null, error);
+        }
+    }
+
+    // for the spare inspectors, which are prepared when no client is listening
+    private static class QuietLog extends SystemStreamLog {
+        @Override
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        @Override
+        public void info(CharSequence content) {
+        }
+
+        @Override
+        public void debug(CharSequence content) {
+        }
+    }
+}
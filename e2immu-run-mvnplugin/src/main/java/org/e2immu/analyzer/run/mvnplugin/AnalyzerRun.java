@@ -0,0 +1,446 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.e2immu.analyzer.modification.common.AnalyzerException;
+import org.e2immu.analyzer.modification.io.LoadAnalyzedPackageFiles;
+import org.e2immu.analyzer.modification.io.WriteAnalysis;
+import org.e2immu.analyzer.modification.linkedvariables.IteratingAnalyzer;
+import org.e2immu.analyzer.modification.linkedvariables.impl.IteratingAnalyzerImpl;
+import org.e2immu.analyzer.modification.linkedvariables.io.LinkedVariablesCodec;
+import org.e2immu.analyzer.modification.prepwork.PrepAnalyzer;
+import org.e2immu.analyzer.modification.prepwork.callgraph.ComputeAnalysisOrder;
+import org.e2immu.language.cst.api.analysis.Codec;
+import org.e2immu.language.cst.api.info.Info;
+import org.e2immu.language.cst.api.info.TypeInfo;
+import org.e2immu.language.cst.api.runtime.Runtime;
+import org.e2immu.language.inspection.api.integration.JavaInspector;
+import org.e2immu.util.internal.graph.G;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/*
+The work of the run goal once the sources have been parsed: loading the analyzed packages, the prep analyzer,
+the analysis order and the modification analyzer. It does not depend on Maven's project model, so that
+the analyzer daemon runs exactly the same code.
+ */
+public class AnalyzerRun {
+
+    /*
+    errorMode:
+    failFast: stop immediately
+    collect: collect all exceptions and fail at the end
+    report: do not stop, but report to error log
+     */
+    public record Settings(boolean modificationAnalysis, String errorMode, int maxIterations, int parallelism,
+                           boolean incremental, File incrementalDirectory, File analyzedPackageStore,
+                           boolean workList, File convergenceReport, boolean sourceSetSchedule) {
+
+        // one iteration at a time, see SteppedAnalysis; the convergence report does not switch it on
+        public boolean stepped() {
+            return workList;
+        }
+
+        public Map<String, String> toMap() {
+            Map<String, String> map = new HashMap<>();
+            map.put("modificationAnalysis", Boolean.toString(modificationAnalysis));
+            map.put("errorMode", errorMode);
+            map.put("maxIterations", Integer.toString(maxIterations));
+            map.put("parallelism", Integer.toString(parallelism));
+            map.put("incremental", Boolean.toString(incremental));
+            if (incrementalDirectory != null) map.put("incrementalDirectory", incrementalDirectory.getPath());
+            if (analyzedPackageStore != null) map.put("analyzedPackageStore", analyzedPackageStore.getPath());
+            map.put("workList", Boolean.toString(workList));
+            if (convergenceReport != null) map.put("convergenceReport", convergenceReport.getPath());
+            map.put("sourceSetSchedule", Boolean.toString(sourceSetSchedule));
+            return map;
+        }
+
+        public static Settings fromMap(Map<String, String> map) {
+            return new Settings(Boolean.parseBoolean(map.get("modificationAnalysis")),
+                    map.get("errorMode"),
+                    Integer.parseInt(map.get("maxIterations")),
+                    Integer.parseInt(map.get("parallelism")),
+                    Boolean.parseBoolean(map.get("incremental")),
+                    map.containsKey("incrementalDirectory") ? new File(map.get("incrementalDirectory")) : null,
+                    map.containsKey("analyzedPackageStore") ? new File(map.get("analyzedPackageStore")) : null,
+                    Boolean.parseBoolean(map.get("workList")),
+                    map.containsKey("convergenceReport") ? new File(map.get("convergenceReport")) : null,
+                    Boolean.parseBoolean(map.get("sourceSetSchedule")));
+        }
+    }
+
+    public static class AnalysisFailedException extends Exception {
+        public AnalysisFailedException(String message) {
+            super(message);
+        }
+    }
+
+    /*
+    One shard of a sharded run, see ShardedAnalysis: only the primary types of these packages are analyzed.
+    The results of the packages of earlier shards are loaded from their directories; the results of this shard
+    are written per package into the output directory, in the same format. The packages of later shards must not
+    be reached: their types would be seen without analysis, see checkShardOrder.
+     */
+    public record Shard(Set<String> packages, List<String> load, File output, Set<String> later) {
+    }
+
+    private final Settings settings;
+    private final Log log;
+    private final Phases phases;
+    private Shard shard;
+    private AnalyzedPackagesLoader analyzedPackagesLoader;
+    private SourceParser sourceParser;
+
+    public AnalyzerRun(Settings settings, Log log, Phases phases) {
+        this.settings = settings;
+        this.log = log;
+        this.phases = phases;
+    }
+
+    public AnalyzerRun withShard(Shard shard) {
+        this.shard = shard;
+        return this;
+    }
+
+    // the loader that has already loaded the analyzed packages into the inspector, see AnalyzerDaemon
+    public AnalyzerRun withAnalyzedPackagesLoader(AnalyzedPackagesLoader analyzedPackagesLoader) {
+        this.analyzedPackagesLoader = analyzedPackagesLoader;
+        return this;
+    }
+
+    // parses the sources again when the modification analyzer has to run again, see run
+    public AnalyzerRun withSourceParser(SourceParser sourceParser) {
+        this.sourceParser = sourceParser;
+        return this;
+    }
+
+    /*
+    When the modification analyzer reaches packages of the analyzed package store whose analysis was not loaded,
+    its results could differ from those of a run without store. The sources are then parsed again, into a new
+    inspector, and analyzed again with those packages loaded up front, until no package is missed. Results are
+    only stored, incrementally or per shard, by the last round.
+    Returns the parse result that holds the results.
+     */
+    public CommonMojo.ParseSourcesResult run(CommonMojo.ParseSourcesResult psr)
+            throws IOException, InterruptedException, AnalysisFailedException {
+        CommonMojo.ParseSourcesResult current = psr;
+        Set<String> missed = analyze(current);
+        while (!missed.isEmpty()) {
+            if (sourceParser == null) {
+                throw new AnalysisFailedException("The modification analyzer reached " + missed.size()
+                                                  + " package(s) whose analysis was not loaded from the store: "
+                                                  + missed);
+            }
+            log.info("The modification analyzer reached " + missed.size() + " package(s) whose analysis was not"
+                     + " loaded from the store; analyzing again with them loaded: " + missed);
+            Set<String> packages = new TreeSet<>(analyzedPackagesLoader.packagesLoadedFromStore());
+            packages.addAll(missed);
+            analyzedPackagesLoader = new AnalyzedPackagesLoader(settings.analyzedPackageStore())
+                    .withPackages(packages);
+            try (Phases.Phase ignored = phases.start("parse again")) {
+                JavaInspector javaInspector = sourceParser.initialize(current.inputConfiguration());
+                current = new CommonMojo.ParseSourcesResult(sourceParser.parse(javaInspector), javaInspector,
+                        current.inputConfiguration());
+            }
+            missed = analyze(current);
+        }
+        return current;
+    }
+
+    // returns the packages that the modification analyzer missed; when not empty, nothing has been stored
+    private Set<String> analyze(CommonMojo.ParseSourcesResult psr)
+            throws IOException, InterruptedException, AnalysisFailedException {
+        boolean storeErrors = !"failFast".equalsIgnoreCase(settings.errorMode());
+        boolean failWhenStoredErrors = !"report".equalsIgnoreCase(settings.errorMode());
+
+        Runtime runtime = psr.javaInspector().runtime();
+
+        Codec codec = new LinkedVariablesCodec(runtime).codec();
+        if (analyzedPackagesLoader == null) {
+            analyzedPackagesLoader = new AnalyzedPackagesLoader(settings.analyzedPackageStore());
+        }
+        if (analyzedPackagesLoader.loaded()) {
+            log.info("Analyzed packages were loaded before the request");
+        }
+        try (Phases.Phase ignored = phases.start("load analyzed packages")) {
+            analyzedPackagesLoader.load(psr.javaInspector(), log);
+            analyzedPackagesLoader.loadReached(psr.javaInspector(), log);
+        }
+        if (shard != null && !shard.load().isEmpty()) {
+            try (Phases.Phase ignored = phases.start("load earlier shards")) {
+                new LoadAnalyzedPackageFiles().go(codec, shard.load());
+            }
+        }
+
+        IntGraph<Info> dependencyGraph = dependencyGraph(psr, runtime);
+        try (Phases.Phase ignored = phases.start("load analyzed packages reached by prep analyzer")) {
+            analyzedPackagesLoader.loadReached(psr.javaInspector(), log);
+        }
+        List<Info> order = dependencyGraph.vertices();
+        if (log.isDebugEnabled() && order.size() < 50) {
+            log.debug("Analysis order: " + order);
+        } else {
+            log.info("Type histogram: " + histogram(order));
+        }
+        if (!settings.modificationAnalysis()) {
+            log.info("Skip modification analyzer");
+            return Set.of();
+        }
+        List<Info> toAnalyze = shard == null ? order : order.stream()
+                .filter(info -> shard.packages().contains(info.typeInfo().primaryType().packageName()))
+                .toList();
+        IncrementalAnalysis incrementalAnalysis = null;
+        if (settings.incremental()) {
+            try (Phases.Phase ignored = phases.start("prepare incremental analysis")) {
+                incrementalAnalysis = new IncrementalAnalysis(settings.incrementalDirectory(), log);
+                String configurationKey = IncrementalAnalysis.configurationKey(psr.inputConfiguration(),
+                        String.valueOf(settings.maxIterations()));
+                toAnalyze = incrementalAnalysis.prepare(configurationKey, psr.parseResult().primaryTypes(),
+                        dependencyGraph, order, codec);
+            }
+        }
+        log.info("Starting modification analyzer on " + toAnalyze.size() + " of " + order.size()
+                 + " elements");
+        IteratingAnalyzer.Configuration configuration = new IteratingAnalyzerImpl.ConfigurationBuilder()
+                .setStoreErrors(storeErrors)
+                .setMaxIterations(settings.maxIterations())
+                .build();
+        List<AnalyzerException> analyzerExceptions;
+        try (Phases.Phase ignored = phases.start("modification analysis")) {
+            if (settings.stepped()) {
+                analyzerExceptions = stepped(runtime, storeErrors, dependencyGraph, toAnalyze);
+            } else {
+                SteppedAnalysis.Step step;
+                if (settings.sourceSetSchedule()) {
+                    step = infos -> perSourceSet(psr, dependencyGraph, infos,
+                            () -> new IteratingAnalyzerImpl(runtime, configuration));
+                } else if (settings.parallelism() > 1) {
+                    step = infos -> new PartitionedAnalysis(log, settings.parallelism()).analyze(dependencyGraph,
+                            infos, () -> new IteratingAnalyzerImpl(runtime, configuration));
+                } else {
+                    step = infos -> {
+                        IteratingAnalyzer analyzer = new IteratingAnalyzerImpl(runtime, configuration);
+                        IteratingAnalyzer.Output output = analyzer.analyze(infos);
+                        return output.analyzerExceptions();
+                    };
+                }
+                analyzerExceptions = settings.convergenceReport() == null ? step.analyze(toAnalyze)
+                        : measured(step, toAnalyze);
+            }
+        } catch (RuntimeException e) {
+            // a failure may be due to a missing analysis
+            Set<String> missed = analyzedPackagesLoader.unloaded(psr.javaInspector());
+            if (missed.isEmpty()) throw e;
+            log.debug("Modification analyzer failed with missed packages: " + e);
+            return missed;
+        }
+        Set<String> missed = analyzedPackagesLoader.unloaded(psr.javaInspector());
+        if (!missed.isEmpty()) return missed;
+        if (shard != null) checkShardOrder(psr);
+
+        if (storeErrors && !analyzerExceptions.isEmpty()) {
+            int n = analyzerExceptions.size();
+            log.error("Modification analysis halted with " + n + " exceptions");
+            for (AnalyzerException ae : analyzerExceptions) {
+                log.error("In " + ae.getInfo() + ": " + ae.getMessage());
+            }
+            if (failWhenStoredErrors) {
+                throw new AnalysisFailedException("Failed to run analyzer, caught " + n + " exceptions");
+            }
+        } else if (incrementalAnalysis != null) {
+            try (Phases.Phase ignored = phases.start("store incremental results")) {
+                incrementalAnalysis.store(runtime, codec);
+            }
+        }
+        if (shard != null) {
+            try (Phases.Phase ignored = phases.start("write shard results")) {
+                writeShard(psr, runtime, codec);
+            }
+        }
+        return Set.of();
+    }
+
+    /*
+    The shards are planned from the qualified names in the sources, which miss dependencies that are never
+    spelled out, e.g. through the return type of a call, an inherited member type, or var. A type of a later
+    shard that has been loaded while this shard was analyzed is such a dependency: in a single JVM, its analysis
+    would have been available.
+     */
+    private void checkShardOrder(CommonMojo.ParseSourcesResult psr) throws AnalysisFailedException {
+        Set<String> reached = psr.javaInspector().compiledTypesManager().typesLoaded().stream()
+                .map(TypeInfo::packageName)
+                .filter(shard.later()::contains)
+                .collect(Collectors.toCollection(TreeSet::new));
+        if (!reached.isEmpty()) {
+            throw new AnalysisFailedException("The packages " + new TreeSet<>(shard.packages())
+                                              + " depend on " + reached + ", which the planning put in later"
+                                              + " shards; the results would differ from those of a single JVM."
+                                              + " Use fewer shards, or none");
+        }
+    }
+
+    private void writeShard(CommonMojo.ParseSourcesResult psr, Runtime runtime, Codec codec) throws IOException {
+        int packages = writeResults(psr.parseResult().primaryTypes().stream()
+                .filter(ti -> shard.packages().contains(ti.packageName())).toList(), runtime, codec, shard.output());
+        log.info("Wrote the results of " + packages + " package(s) to " + shard.output());
+    }
+
+    /*
+    The results of the primary types, in one directory per package, in the format of IncrementalAnalysis.
+    Returns the number of packages.
+     */
+    static int writeResults(Collection<TypeInfo> primaryTypes, Runtime runtime, Codec codec, File directory)
+            throws IOException {
+        Map<String, List<TypeInfo>> byPackage = primaryTypes.stream()
+                .collect(Collectors.groupingBy(TypeInfo::packageName, TreeMap::new, Collectors.toList()));
+        WriteAnalysis writeAnalysis = new WriteAnalysis(runtime);
+        for (Map.Entry<String, List<TypeInfo>> entry : byPackage.entrySet()) {
+            File packageDirectory = new File(directory, IncrementalAnalysis.directoryName(entry.getKey()));
+            if (!packageDirectory.isDirectory() && !packageDirectory.mkdirs()) {
+                throw new IOException("Cannot create " + packageDirectory);
+            }
+            IncrementalAnalysis.writePackage(writeAnalysis, codec, packageDirectory, entry.getValue());
+        }
+        return byPackage.size();
+    }
+
+    static int writeResults(CommonMojo.ParseSourcesResult psr, File directory) throws IOException {
+        Runtime runtime = psr.javaInspector().runtime();
+        return writeResults(psr.parseResult().primaryTypes(), runtime, new LinkedVariablesCodec(runtime).codec(),
+                directory);
+    }
+
+    /*
+    The prep analyzer's graph is needed to compute the analysis order, and is converted afterwards: both are held
+    during the conversion, only the converted graph after this method returns. The vertices of the result are
+    numbered in analysis order.
+     */
+    private IntGraph<Info> dependencyGraph(CommonMojo.ParseSourcesResult psr, Runtime runtime) {
+        log.info("Starting prep analyzer");
+        G<Info> graph;
+        try (Phases.Phase ignored = phases.start("prep analyzer")) {
+            PrepAnalyzer prepAnalyzer = new PrepAnalyzer(runtime);
+            prepAnalyzer.initialize(psr.javaInspector().compiledTypesManager().typesLoaded());
+            graph = prepAnalyzer.doPrimaryTypesReturnGraph(Set.copyOf(psr.parseResult().primaryTypes()));
+        }
+        List<Info> order;
+        try (Phases.Phase ignored = phases.start("analysis order")) {
+            order = new ComputeAnalysisOrder().go(graph);
+        }
+        try (Phases.Phase ignored = phases.start("compact dependency graph")) {
+            IntGraph<Info> intGraph = IntGraph.of(graph, order);
+            log.debug("Dependency graph: " + intGraph.size() + " vertices, " + intGraph.edgeCount() + " edges");
+            return intGraph;
+        }
+    }
+
+    // the kinds of Info are few, so one counter per kind rather than a boxed value per element
+    static Map<String, Integer> histogram(List<Info> order) {
+        Map<String, int[]> counts = new TreeMap<>();
+        for (Info info : order) counts.computeIfAbsent(info.info(), k -> new int[1])[0]++;
+        Map<String, Integer> histogram = new LinkedHashMap<>();
+        counts.forEach((k, v) -> histogram.put(k, v[0]));
+        return histogram;
+    }
+
+    /*
+    Each source set is analyzed by its own analyzer, as soon as the source sets it depends on are done;
+    independent source sets are analyzed concurrently. Elements of a source set outside the schedule are analyzed
+    last.
+    The parallelism is shared: the widest layer of the schedule gets a thread per source set, and each source set
+    divides the rest among the independent parts of its dependency graph, as in PartitionedAnalysis.
+     */
+    private List<AnalyzerException> perSourceSet(CommonMojo.ParseSourcesResult psr, IntGraph<Info> dependencyGraph,
+                                                 List<Info> toAnalyze, Supplier<IteratingAnalyzer> analyzerSupplier)
+            throws InterruptedException {
+        SourceSetSchedule schedule = SourceSetSchedule.of(psr.inputConfiguration());
+        int parallelism = Math.max(1, settings.parallelism());
+        int width = Math.min(parallelism, schedule.layers().stream().mapToInt(List::size).max().orElse(1));
+        int threadsPerSourceSet = Math.max(1, parallelism / width);
+        log.info("Source set schedule: " + schedule + "; " + width + " source set(s) at a time, "
+                 + threadsPerSourceSet + " thread(s) each");
+        Map<String, List<Info>> bySourceSet = new HashMap<>();
+        List<Info> unscheduled = new ArrayList<>();
+        Set<String> scheduled = Set.copyOf(schedule.sourceSets());
+        for (Info info : toAnalyze) {
+            String name = sourceSetName(info);
+            if (name != null && scheduled.contains(name)) {
+                bySourceSet.computeIfAbsent(name, n -> new ArrayList<>()).add(info);
+            } else {
+                unscheduled.add(info);
+            }
+        }
+        List<AnalyzerException> analyzerExceptions = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(width)) {
+            List<List<AnalyzerException>> results = schedule.execute(executor, name -> {
+                List<Info> infos = bySourceSet.getOrDefault(name, List.of());
+                if (infos.isEmpty()) return List.of();
+                log.info("Analyzing " + infos.size() + " elements of source set " + name);
+                return analyze(dependencyGraph, infos, analyzerSupplier, threadsPerSourceSet);
+            });
+            results.forEach(analyzerExceptions::addAll);
+        } catch (InterruptedException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Analyzing a source set failed", e);
+        }
+        if (!unscheduled.isEmpty()) {
+            analyzerExceptions.addAll(analyze(dependencyGraph, unscheduled, analyzerSupplier, parallelism));
+        }
+        return analyzerExceptions;
+    }
+
+    private List<AnalyzerException> analyze(IntGraph<Info> dependencyGraph, List<Info> infos,
+                                            Supplier<IteratingAnalyzer> analyzerSupplier, int threads)
+            throws InterruptedException {
+        if (threads == 1) return analyzerSupplier.get().analyze(infos).analyzerExceptions();
+        return new PartitionedAnalysis(log, threads).analyze(dependencyGraph, infos, analyzerSupplier);
+    }
+
+    private static String sourceSetName(Info info) {
+        TypeInfo primaryType = info.typeInfo().primaryType();
+        if (primaryType.compilationUnit() == null || primaryType.compilationUnit().sourceSet() == null) return null;
+        return primaryType.compilationUnit().sourceSet().name();
+    }
+
+    // the default mode, measured as a whole: the analyzer exposes no per-iteration data, see SteppedAnalysis
+    private List<AnalyzerException> measured(SteppedAnalysis.Step step, List<Info> toAnalyze)
+            throws IOException, InterruptedException {
+        List<AnalyzerException> analyzerExceptions = new ArrayList<>();
+        SteppedAnalysis.Report report = new SteppedAnalysis(log, settings.maxIterations(), false)
+                .runOnce(toAnalyze, step, analyzerExceptions);
+        SteppedAnalysis.write(report, settings.convergenceReport());
+        log.info("Wrote convergence report to " + settings.convergenceReport());
+        return analyzerExceptions;
+    }
+
+    private List<AnalyzerException> stepped(Runtime runtime, boolean storeErrors, IntGraph<Info> dependencyGraph,
+                                            List<Info> toAnalyze) throws IOException, InterruptedException {
+        IteratingAnalyzer.Configuration single = new IteratingAnalyzerImpl.ConfigurationBuilder()
+                .setStoreErrors(storeErrors)
+                .setMaxIterations(1)
+                .build();
+        SteppedAnalysis.Step step = settings.parallelism() > 1
+                ? infos -> new PartitionedAnalysis(log, settings.parallelism()).analyze(dependencyGraph, infos,
+                () -> new IteratingAnalyzerImpl(runtime, single))
+                : infos -> new IteratingAnalyzerImpl(runtime, single).analyze(infos).analyzerExceptions();
+        List<AnalyzerException> analyzerExceptions = new ArrayList<>();
+        SteppedAnalysis.Report report = new SteppedAnalysis(log, settings.maxIterations(), settings.workList())
+                .run(dependencyGraph, toAnalyze, step, analyzerExceptions);
+        if (!report.slowestTypes().isEmpty()) {
+            log.info("Slowest converging types (last changed iteration, changed properties): "
+                     + SteppedAnalysis.summary(report));
+        }
+        if (settings.convergenceReport() != null) {
+            SteppedAnalysis.write(report, settings.convergenceReport());
+            log.info("Wrote convergence report to " + settings.convergenceReport());
+        }
+        return analyzerExceptions;
+    }
+}
@@ -2,6 +2,9 @@ package org.e2immu.analyzer.run.mvnplugin;
 
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.DependencyResolutionException;
@@ -9,16 +12,11 @@ import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.ProjectDependenciesResolver;
 import org.e2immu.analyzer.run.config.util.ComputeDependencies;
 import org.e2immu.analyzer.run.config.util.JavaModules;
+import org.e2immu.analyzer.run.config.util.JsonStreaming;
 import org.e2immu.language.cst.api.element.SourceSet;
-import org.e2immu.language.cst.api.expression.ConstructorCall;
-import org.e2immu.language.cst.api.expression.MethodCall;
-import org.e2immu.language.cst.api.info.MethodInfo;
-import org.e2immu.language.cst.api.info.TypeInfo;
 import org.e2immu.language.inspection.api.integration.JavaInspector;
 import org.e2immu.language.inspection.api.parser.ParseResult;
 import org.e2immu.language.inspection.api.resource.InputConfiguration;
-import org.e2immu.language.inspection.integration.JavaInspectorImpl;
-import org.e2immu.language.inspection.integration.ToolChain;
 import org.e2immu.language.inspection.resource.InputConfigurationImpl;
 import org.e2immu.language.inspection.resource.SourceSetImpl;
 import org.e2immu.util.internal.graph.G;
@@ -28,8 +26,16 @@ import org.e2immu.util.internal.graph.op.Linearize;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 public abstract class CommonMojo extends AbstractMojo {
@@ -40,6 +46,12 @@ public abstract class CommonMojo extends AbstractMojo {
     @Parameter(defaultValue = "${session}", readonly = true, required = true)
     private MavenSession session;
 
+    @Parameter(defaultValue = "${plugin}", readonly = true)
+    private PluginDescriptor pluginDescriptor;
+
+    @Parameter(defaultValue = "${mojoExecution}", readonly = true)
+    private MojoExecution mojoExecution;
+
     @Parameter(property = "jre", defaultValue = "")
     private String jre;
 
@@ -61,26 +73,133 @@ public abstract class CommonMojo extends AbstractMojo {
     @Parameter(property = "sourceEncoding", defaultValue = "UTF-8")
     private String sourceEncoding;
 
+    @Parameter(property = "inputConfigurationCache",
+            defaultValue = "${project.build.directory}/e2immu/inputConfiguration.cache.json")
+    private File inputConfigurationCache;
+
+    @Parameter(property = "useInputConfigurationCache", defaultValue = "true")
+    private boolean useInputConfigurationCache;
+
+    /*
+    goals executed on the same project in the same session share the parsed sources,
+    as long as input configuration and source files are unchanged. The parsed sources and their inspector
+    stay in memory until the end of the session, for every module of a reactor; hence opt-in.
+     */
+    @Parameter(property = "reuseParseResult", defaultValue = "false")
+    private boolean reuseParseResult;
+
+    /*
+    goals that generate files only rewrite the files whose content changed, and skip all work when
+    their inputs did not change
+     */
+    @Parameter(property = "skipUnchangedOutput", defaultValue = "true")
+    private boolean skipUnchangedOutput;
+
+    /*
+    wall time, CPU time and allocated bytes of the goal's thread, and heap in use, for each phase of the goal,
+    written to phaseReportDirectory/phases-<goal>.json and/or .csv; comma-separated "json", "csv", or "none"
+     */
+    @Parameter(property = "phaseReport", defaultValue = "none")
+    private String phaseReport;
+
+    @Parameter(property = "phaseReportDirectory", defaultValue = "${project.build.directory}/e2immu")
+    private File phaseReportDirectory;
+
+    /*
+    the number of jar indices kept for all modules of the build; see JarIndexCache
+     */
+    @Parameter(property = "jarIndexCacheSize", defaultValue = "2000")
+    private int jarIndexCacheSize;
+
+    /*
+    changes the class path: dependencies without class files (poms, jars of resources only) are left out,
+    and their own dependencies take their place; see ComputeSourceSets
+     */
+    @Parameter(property = "skipJarsWithoutClasses", defaultValue = "false")
+    private boolean skipJarsWithoutClasses;
+
+    /*
+    only the jars that the sources can reach are given to the inspector, see LazyClassPath;
+    write-annotated-apis only composes the types that the method call frequencies reach
+     */
+    @Parameter(property = "lazyClassPath", defaultValue = "false")
+    private boolean lazyClassPath;
+
     @Component
     private ProjectDependenciesResolver dependenciesResolver;
 
+    private static final String PARSE_RESULT_KEY = CommonMojo.class.getName() + ".parseResult";
+
+    private Phases phases;
+
+    protected Phases phases() {
+        if (phases == null) {
+            phases = new Phases(mojoExecution == null ? getClass().getSimpleName() : mojoExecution.getGoal(),
+                    getLog());
+        }
+        return phases;
+    }
+
+    // called at the end of execute(), also when the goal fails
+    protected void writePhaseReport() {
+        if (phases == null || phaseReportDirectory == null) return;
+        try {
+            phases.write(phaseReportDirectory, project.getId(), phaseReport);
+        } catch (IOException | RuntimeException e) {
+            getLog().warn("Cannot write phase report: " + e.getMessage());
+        }
+    }
+
     protected InputConfiguration makeInputConfiguration() throws DependencyResolutionException {
+        try (Phases.Phase ignored = phases().start("input configuration")) {
+            return cachedInputConfiguration();
+        }
+    }
+
+    private InputConfiguration cachedInputConfiguration() throws DependencyResolutionException {
+        if (!useInputConfigurationCache || inputConfigurationCache == null) {
+            return computeInputConfiguration();
+        }
+        InputConfigurationCache cache = new InputConfigurationCache(inputConfigurationCache, getLog());
+        String key;
+        try {
+            key = InputConfigurationCache.key(project, jre, workingDirectory, excludeFromClasspath, jmods,
+                    sourcePackages, testSourcePackages, sourceEncoding, Boolean.toString(skipJarsWithoutClasses));
+        } catch (IOException e) {
+            getLog().warn("Cannot compute input configuration cache key: " + e.getMessage());
+            return computeInputConfiguration();
+        }
+        InputConfiguration cached = cache.load(key);
+        if (cached != null) return cached;
+        long start = System.currentTimeMillis();
+        InputConfiguration inputConfiguration = computeInputConfiguration();
+        cache.store(key, inputConfiguration, System.currentTimeMillis() - start);
+        return inputConfiguration;
+    }
+
+    private InputConfiguration computeInputConfiguration() throws DependencyResolutionException {
         InputConfiguration.Builder builder = new InputConfigurationImpl.Builder();
         builder.setAlternativeJREDirectory(jre);
         builder.setWorkingDirectory(workingDirectory);
         File absWorkingDirectory = workingDirectory == null || workingDirectory.isBlank()
                 ? project.getBasedir().getAbsoluteFile() : new File(workingDirectory).getAbsoluteFile();
 
+        JarIndexCache.setMaxEntries(jarIndexCacheSize);
         Set<String> excludeFromClasspathSet = excludeFromClasspath == null || excludeFromClasspath.isBlank() ? Set.of() :
                 Arrays.stream(excludeFromClasspath.split("[;,]\\s*")).collect(Collectors.toUnmodifiableSet());
         ComputeDependencies.SourceSetDependencies result = new ComputeSourceSets(absWorkingDirectory,
                 dependenciesResolver, project,
-                session, getLog()).compute(sourceEncoding, sourcePackages, testSourcePackages, excludeFromClasspathSet);
+                session, getLog(), phases()).withSkipJarsWithoutClasses(skipJarsWithoutClasses)
+                .compute(sourceEncoding, sourcePackages, testSourcePackages, excludeFromClasspathSet);
 
         makeJavaModules(jmods).forEach(set -> result.sourceSetsByName().put(set.name(), set));
 
-        G<String> graph = new ComputeDependencies(s ->getLog().debug(s)).go(result);
-        List<String> linearization = Linearize.linearize(graph).asList(String::compareToIgnoreCase);
+        G<String> graph;
+        List<String> linearization;
+        try (Phases.Phase ignored = phases().start("linearize source sets")) {
+            graph = new ComputeDependencies(s -> getLog().debug(s)).go(result);
+            linearization = Linearize.linearize(graph).asList(String::compareToIgnoreCase);
+        }
         if(getLog().isDebugEnabled()) {
             getLog().debug("Graph: " + graph);
             getLog().debug("Linearization:\n  " + String.join("\n  ", linearization) + "\n");
@@ -122,56 +241,178 @@ public abstract class CommonMojo extends AbstractMojo {
                                         InputConfiguration inputConfiguration) {
     }
 
+    private record CachedParseResult(String key, ParseSourcesResult parseSourcesResult, AtomicBoolean analyzed) {
+    }
+
+    protected boolean lazyClassPath() {
+        return lazyClassPath;
+    }
+
     protected ParseSourcesResult parseSources() throws DependencyResolutionException, IOException {
+        return parseSources(false);
+    }
 
-        InputConfiguration inputConfiguration = makeInputConfiguration();
-        JavaInspector javaInspector = new JavaInspectorImpl();
+    /*
+    A parse result is shared with later goals in the same session, stored as a context value of the project.
+    The prep and modification analyzers write their results into the CST, so a result that has been analyzed
+    is not handed out again for analysis.
+     */
+    protected ParseSourcesResult parseSources(boolean forAnalysis) throws DependencyResolutionException, IOException {
+        return parseSources(makeInputConfiguration(), forAnalysis);
+    }
+
+    protected ParseSourcesResult parseSources(InputConfiguration inputConfiguration, boolean forAnalysis)
+            throws IOException {
+        if (!reuseParseResult) {
+            project.setContextValue(PARSE_RESULT_KEY, null);
+            return doParseSources(inputConfiguration);
+        }
+        // a pruned class path loads fewer types, so a parse result does not serve both modes
+        String key = sourcesKey(inputConfiguration) + (lazyClassPath ? " lazy" : "");
+        if (project.getContextValue(PARSE_RESULT_KEY) instanceof CachedParseResult cached
+            && cached.key().equals(key)
+            && (!forAnalysis || cached.analyzed().compareAndSet(false, true))) {
+            getLog().info("Reusing parse result of an earlier goal in this session");
+            return cached.parseSourcesResult();
+        }
+        ParseSourcesResult parseSourcesResult = doParseSources(inputConfiguration);
+        project.setContextValue(PARSE_RESULT_KEY, new CachedParseResult(key, parseSourcesResult,
+                new AtomicBoolean(forAnalysis)));
+        return parseSourcesResult;
+    }
+
+    /*
+    Identifies the input of a parse: the input configuration, the size and modification time of each class path
+    part (a rebuilt SNAPSHOT keeps its path), and the source files.
+     */
+    protected static String sourcesKey(InputConfiguration inputConfiguration) throws IOException {
+        Fingerprints fingerprints = new Fingerprints()
+                .add(IncrementalAnalysis.configurationKey(inputConfiguration));
+        Path workingDirectory = inputConfiguration.workingDirectory();
+        for (SourceSet set : inputConfiguration.sourceSets()) {
+            if (set.sourceDirectories() == null) continue;
+            for (Path directory : set.sourceDirectories()) {
+                fingerprints.addDirectory(workingDirectory == null ? directory : workingDirectory.resolve(directory));
+            }
+        }
+        return fingerprints.hash();
+    }
+
+    /*
+    Identifies what an initialized JavaInspector depends on: the input configuration, the stamps of the class path
+    parts, and the names of the source files, but not their content, so that the analyzer daemon keeps its spare
+    inspector when sources are edited.
+     */
+    protected static String inspectorKey(InputConfiguration inputConfiguration) throws IOException {
+        Fingerprints fingerprints = new Fingerprints()
+                .add(IncrementalAnalysis.configurationKey(inputConfiguration));
+        Path workingDirectory = inputConfiguration.workingDirectory();
+        for (SourceSet set : inputConfiguration.sourceSets()) {
+            if (set.sourceDirectories() == null) continue;
+            for (Path directory : set.sourceDirectories()) {
+                Path resolved = workingDirectory == null ? directory : workingDirectory.resolve(directory);
+                if (!Files.isDirectory(resolved)) continue;
+                try (Stream<Path> files = Files.walk(resolved)) {
+                    files.filter(Files::isRegularFile).map(Path::toString).sorted().forEach(fingerprints::add);
+                }
+            }
+        }
+        return fingerprints.hash();
+    }
+
+    /*
+    Identifies the code that produces the output: the plugin version, and for snapshots, the plugin jar.
+     */
+    protected String pluginKey() {
+        if (pluginDescriptor == null) return "unknown";
+        File jar = pluginDescriptor.getPluginArtifact() == null ? null : pluginDescriptor.getPluginArtifact().getFile();
+        return pluginDescriptor.getId() + " " + (jar == null ? "" : Fingerprints.stamp(jar));
+    }
+
+    /*
+    The part of a request to the analyzer daemon that describes the project and its sources.
+    The project is identified by its coordinates and its directory, as one machine can hold several checkouts.
+     */
+    protected Map<String, Object> daemonRequest(InputConfiguration inputConfiguration) throws IOException {
+        Map<String, Object> request = new HashMap<>();
+        request.put("projectId", project.getId() + "@" + project.getBasedir());
+        request.put("pluginKey", pluginKey());
+        request.put("inspectorKey", inspectorKey(inputConfiguration));
+        request.put("inputConfiguration", JsonStreaming.objectMapper().writeValueAsString(inputConfiguration));
+        request.put("lazyClassPath", lazyClassPath);
+        request.put("debug", getLog().isDebugEnabled());
+        return request;
+    }
 
-        InputConfiguration withJavaModules = inputConfiguration.withE2ImmuSupportFromClasspath().withDefaultModules();
-        getLog().info("Working directory: " + withJavaModules.workingDirectory());
-        javaInspector.initialize(withJavaModules);
+    /*
+    The class path of the plugin, to start the daemon with. Maven's own API is not part of the plugin's realm,
+    but the daemon needs the Log interface.
+     */
+    protected List<String> pluginClassPath() throws IOException {
+        List<String> classPath = new ArrayList<>();
+        if (pluginDescriptor != null && pluginDescriptor.getClassRealm() != null) {
+            for (URL url : pluginDescriptor.getClassRealm().getURLs()) {
+                classPath.add(path(url));
+            }
+        }
+        classPath.add(path(Log.class.getProtectionDomain().getCodeSource().getLocation()));
+        return classPath;
+    }
 
-        String jdkSpec = ToolChain.extractLibraryName(javaInspector.compiledTypesManager().typesLoaded(),
-                false);
-        String mapped = ToolChain.mapJreShortNameToAnalyzedPackageShortName(jdkSpec);
-        getLog().info("Resolved analyzed package files for " + jdkSpec + " -> " + mapped);
+    private static String path(URL url) throws IOException {
+        try {
+            return Path.of(url.toURI()).toString();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Class path entry " + url + " is not a file", e);
+        }
+    }
 
-        JavaInspector.ParseOptions parseOptions = new JavaInspectorImpl.ParseOptionsBuilder()
-                .setFailFast(true).setDetailedSources(true).build();
-        ParseResult parseResult = javaInspector.parse(parseOptions).parseResult();
+    protected ParseSourcesResult doParseSources(InputConfiguration inputConfiguration) throws IOException {
+        SourceParser sourceParser = new SourceParser(getLog(), phases(), lazyClassPath);
+        JavaInspector javaInspector = sourceParser.initialize(inputConfiguration);
+        ParseResult parseResult = sourceParser.parse(javaInspector);
         return new ParseSourcesResult(parseResult, javaInspector, inputConfiguration);
     }
 
+    /*
+    Returns null when skipUnchangedOutput is false: the goal then writes directly into the output directory.
+     */
+    protected OutputManifest outputManifest(File outputDirectory, String... inputs) throws IOException {
+        if (!skipUnchangedOutput) return null;
+        Fingerprints fingerprints = new Fingerprints().add(pluginKey()).add(getClass().getName());
+        for (String input : inputs) fingerprints.add(input);
+        return new OutputManifest(outputDirectory, fingerprints.hash(), getLog());
+    }
+
+    /*
+    package prefix -> source set name -> generated prefix; the generator is called for every type written.
+    Like the Coordinates, the table can outlive a build, so it is cleared when it holds more than
+    MAX_PACKAGE_PREFIXES prefixes; they are cheap to compute again.
+     */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> PACKAGE_PREFIXES =
+            new ConcurrentHashMap<>();
+    private static final AtomicInteger PACKAGE_PREFIX_ENTRIES = new AtomicInteger();
+    static final int MAX_PACKAGE_PREFIXES = 50_000;
+
     protected static String packagePrefixGenerator(String packagePrefix, SourceSet sourceSet) {
         String pp = packagePrefix == null || packagePrefix.isBlank() ? "" : packagePrefix;
         if (sourceSet == null || sourceSet.name() == null || sourceSet.name().isBlank()) return pp;
-        String name = sourceSet.name().toLowerCase().replaceAll("[.:-]", "_");
+        String prefix = PACKAGE_PREFIXES.computeIfAbsent(pp, p -> new ConcurrentHashMap<>())
+                .computeIfAbsent(sourceSet.name(), name -> {
+                    PACKAGE_PREFIX_ENTRIES.incrementAndGet();
+                    return makePackagePrefix(pp, name);
+                });
+        if (PACKAGE_PREFIX_ENTRIES.get() > MAX_PACKAGE_PREFIXES) {
+            PACKAGE_PREFIXES.clear();
+            PACKAGE_PREFIX_ENTRIES.set(0);
+        }
+        return prefix;
+    }
+
+    private static String makePackagePrefix(String pp, String sourceSetName) {
+        String name = sourceSetName.toLowerCase().replaceAll("[.:-]", "_");
         if (name.endsWith("_jar")) name = name.substring(0, name.length() - 4);
         if (pp.isBlank()) return name;
         return pp + "." + name;
     }
-
-    protected static Map<MethodInfo, Integer> methodCallFrequencies(ParseResult parseResult) throws IOException {
-        Map<MethodInfo, Integer> methodHistogram = new HashMap<>();
-        parseResult.primaryTypes().stream()
-                .flatMap(TypeInfo::recursiveSubTypeStream)
-                .flatMap(TypeInfo::constructorAndMethodStream)
-                .forEach(mi -> {
-                    mi.methodBody().visit(e -> {
-                        MethodInfo methodInfo = null;
-                        if (e instanceof MethodCall mc &&
-                            !parseResult.primaryTypes().contains(mc.methodInfo().typeInfo().primaryType())) {
-                            methodInfo = mc.methodInfo();
-                        } else if (e instanceof ConstructorCall cc && cc.constructor() != null
-                                   && !parseResult.primaryTypes().contains(cc.constructor().typeInfo().primaryType())) {
-                            methodInfo = cc.constructor();
-                        }
-                        if (methodInfo != null) {
-                            methodHistogram.merge(methodInfo, 1, Integer::sum);
-                        }
-                        return true;
-                    });
-                });
-        return methodHistogram;
-    }
 }
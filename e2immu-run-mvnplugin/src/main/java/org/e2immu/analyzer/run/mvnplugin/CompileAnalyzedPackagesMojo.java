@@ -0,0 +1,54 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.e2immu.language.inspection.integration.ToolChain;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+Packs the analyzed package files of the JDK and the common libraries (or of the archives given in
+analyzedPackages) into one memory-mappable store. The run goal picks up the store when it exists,
+and then only loads the packages that the sources actually reach. The store records the archives it was
+compiled from; the run goal ignores it, with a warning, once they have changed.
+ */
+@Mojo(name = CompileAnalyzedPackagesMojo.COMPILE_ANALYZED_PACKAGES_GOAL, threadSafe = true)
+public class CompileAnalyzedPackagesMojo extends AbstractMojo {
+    public static final String COMPILE_ANALYZED_PACKAGES_GOAL = "compile-analyzed-packages";
+
+    // comma-separated directories or class path resources; empty means: the current JDK's and the common libraries'
+    @Parameter(property = "analyzedPackages", defaultValue = "")
+    private String analyzedPackages;
+
+    @Parameter(property = "analyzedPackageStore", defaultValue = "${project.build.directory}/e2immu/analyzedPackages.bin")
+    private File analyzedPackageStore;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        try {
+            List<String> specs = analyzedPackages == null || analyzedPackages.isBlank()
+                    ? List.of(ToolChain.currentJdkAnalyzedPackages(), ToolChain.commonLibsAnalyzedPackages())
+                    : Arrays.stream(analyzedPackages.split("[,;]\\s*")).filter(s -> !s.isBlank()).toList();
+            List<AnalyzedPackageStore.Archive> archives = new ArrayList<>();
+            try {
+                for (String spec : specs) {
+                    archives.add(AnalyzedPackageStore.resolveArchive(spec, getClass().getClassLoader()));
+                }
+                long start = System.currentTimeMillis();
+                int n = AnalyzedPackageStore.compile(specs, archives, analyzedPackageStore);
+                getLog().info("Compiled " + n + " analyzed package files from " + specs + " into "
+                              + analyzedPackageStore + " in " + (System.currentTimeMillis() - start) + " ms");
+            } finally {
+                for (AnalyzedPackageStore.Archive archive : archives) archive.close();
+            }
+        } catch (RuntimeException | IOException e) {
+            throw new MojoExecutionException("Failed to compile analyzed packages", e);
+        }
+    }
+}
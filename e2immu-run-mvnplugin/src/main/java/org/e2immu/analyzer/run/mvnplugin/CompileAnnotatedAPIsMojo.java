@@ -13,6 +13,7 @@ import org.e2immu.analyzer.modification.io.WriteAnalysis;
 import org.e2immu.language.cst.api.analysis.Codec;
 import org.e2immu.language.cst.api.element.SourceSet;
 import org.e2immu.language.cst.api.info.TypeInfo;
+import org.e2immu.language.cst.api.runtime.Runtime;
 import org.e2immu.language.cst.impl.analysis.PropertyProviderImpl;
 import org.e2immu.language.cst.io.CodecImpl;
 import org.e2immu.language.inspection.api.integration.JavaInspector;
@@ -24,10 +25,14 @@ import org.e2immu.util.internal.util.Trie;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Mojo(name = CompileAnnotatedAPIsMojo.COMPILE_AAPI_GOAL, defaultPhase = LifecyclePhase.COMPILE, threadSafe = true)
 public class CompileAnnotatedAPIsMojo extends CommonMojo {
@@ -43,6 +48,19 @@ public class CompileAnnotatedAPIsMojo extends CommonMojo {
     @Parameter(property = "restrictToPackages", defaultValue = "")
     private String restrictToPackages;
 
+    /*
+    number of threads for the shallow analyzer and for writing, see ParallelShallowAnalysis
+     */
+    @Parameter(property = "threads", defaultValue = "1")
+    private int threads;
+
+    /*
+    with threads > 1, parse the annotated APIs a second time, analyze and write them on one thread, and fail when
+    the output differs from that of the threads; doubles the work of the goal
+     */
+    @Parameter(property = "verifyThreads", defaultValue = "false")
+    private boolean verifyThreads;
+
     @Override
     public void execute() throws MojoExecutionException {
         try {
@@ -53,6 +71,13 @@ public class CompileAnnotatedAPIsMojo extends CommonMojo {
 
             // 0. make the input configuration from the dependency information
             InputConfiguration inputConfiguration = makeInputConfiguration();
+            OutputManifest manifest = outputManifest(outputDirectory,
+                    IncrementalAnalysis.configurationKey(inputConfiguration),
+                    new Fingerprints().addDirectory(inputDirectory.toPath()).hash(), restrictToPackages);
+            if (manifest != null && manifest.upToDate()) {
+                getLog().info("Compiled annotated API files in " + outputDirectory + " are up to date");
+                return;
+            }
 
             // 1. load the AAPI files; build the classpath
             AnnotatedApiParser annotatedApiParser = new AnnotatedApiParser();
@@ -60,28 +85,84 @@ public class CompileAnnotatedAPIsMojo extends CommonMojo {
             AnnotatedAPIConfiguration aapiConfiguration = new AnnotatedAPIConfigurationImpl.Builder().build();
 
             getLog().info("Start parsing AnnotatedAPI files from " + inputDirectory);
-            annotatedApiParser.initialize(aapiInputConfiguration, aapiConfiguration);
+            try (Phases.Phase ignored = phases().start("parse annotated APIs")) {
+                annotatedApiParser.initialize(aapiInputConfiguration, aapiConfiguration);
+            }
             JavaInspector javaInspector = annotatedApiParser.javaInspector();
             getLog().info("Loaded AAPI files, now running shallow analyzer");
 
             // 2. run the shallow analyzer on all the loaded types
-            ShallowAnalyzer shallowAnalyzer = new ShallowAnalyzer(annotatedApiParser.runtime(), annotatedApiParser,
-                    true);
-            ShallowAnalyzer.Result rs = shallowAnalyzer.go(annotatedApiParser.typesParsed());
+            ParallelShallowAnalysis parallel = threads > 1
+                    ? new ParallelShallowAnalysis(getLog(), annotatedApiParser.runtime(), threads) : null;
+            List<TypeInfo> allTypes;
+            try (Phases.Phase ignored = phases().start("shallow analyzer")) {
+                if (parallel != null) {
+                    allTypes = parallel.analyze(annotatedApiParser, annotatedApiParser.typesParsed());
+                } else {
+                    ShallowAnalyzer shallowAnalyzer = new ShallowAnalyzer(annotatedApiParser.runtime(),
+                            annotatedApiParser, true);
+                    allTypes = shallowAnalyzer.go(annotatedApiParser.typesParsed()).allTypes();
+                }
+            }
             getLog().info("Ran shallow analyzer on " + annotatedApiParser.types() + " types");
 
             // 3. write out the result
-            Trie<TypeInfo> typeTrie = new Trie<>();
-            rs.allTypes().forEach(ti -> typeTrie.add(ti.packageName().split("\\."), ti));
-
-            WriteAnalysis writeAnalysis = new WriteAnalysis(javaInspector.runtime());
-            Codec codec = new CodecImpl(javaInspector.runtime(), PropertyProviderImpl::get,
-                    null, null); // we don't have to decode
-            writeAnalysis.write(outputDirectory, typeTrie, codec,
-                    set -> packagePrefixGenerator("", set));
+            File directory = manifest == null ? outputDirectory : manifest.prepareStagingDirectory();
+            try (Phases.Phase ignored = phases().start("write")) {
+                if (parallel != null) {
+                    parallel.write(directory, allTypes, set -> packagePrefixGenerator("", set));
+                } else {
+                    write(javaInspector.runtime(), allTypes, directory);
+                }
+            }
+            if (parallel != null && verifyThreads) {
+                try (Phases.Phase ignored = phases().start("verify threads")) {
+                    verifyThreads(aapiInputConfiguration, aapiConfiguration, directory);
+                }
+            }
+            if (manifest != null) manifest.commit();
             getLog().info("Wrote .json files to " + outputDirectory);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while compiling annotated APIs", e);
         } catch (RuntimeException | IOException | DependencyResolutionException e) {
             throw new MojoExecutionException("Failed to write input configuration", e);
+        } finally {
+            writePhaseReport();
+        }
+    }
+
+    private void write(Runtime runtime, List<TypeInfo> allTypes, File directory) throws IOException {
+        Trie<TypeInfo> typeTrie = new Trie<>();
+        allTypes.forEach(ti -> typeTrie.add(ti.packageName().split("\\."), ti));
+        WriteAnalysis writeAnalysis = new WriteAnalysis(runtime);
+        Codec codec = new CodecImpl(runtime, PropertyProviderImpl::get, null, null); // we don't have to decode
+        writeAnalysis.write(directory, typeTrie, codec, set -> packagePrefixGenerator("", set));
+    }
+
+    /*
+    The types of the first run hold its results, so the annotated APIs are parsed again, into a new runtime.
+     */
+    private void verifyThreads(InputConfiguration aapiInputConfiguration, AnnotatedAPIConfiguration aapiConfiguration,
+                               File directory) throws IOException, MojoExecutionException {
+        AnnotatedApiParser annotatedApiParser = new AnnotatedApiParser();
+        annotatedApiParser.initialize(aapiInputConfiguration, aapiConfiguration);
+        List<TypeInfo> allTypes = new ShallowAnalyzer(annotatedApiParser.runtime(), annotatedApiParser, true)
+                .go(annotatedApiParser.typesParsed()).allTypes();
+        Path sequential = Files.createTempDirectory(outputDirectory.getAbsoluteFile().getParentFile().toPath(),
+                "verifyThreads");
+        try {
+            write(annotatedApiParser.runtime(), allTypes, sequential.toFile());
+            List<String> differences = ParallelShallowAnalysis.differences(directory.toPath(), sequential);
+            if (!differences.isEmpty()) {
+                throw new MojoExecutionException("The output on " + threads + " threads differs from that on one"
+                                                 + " thread in " + differences.size() + " file(s): " + differences);
+            }
+            getLog().info("The output on " + threads + " threads is the same as on one thread");
+        } finally {
+            try (Stream<Path> stream = Files.walk(sequential)) {
+                for (Path p : stream.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+            }
         }
     }
 
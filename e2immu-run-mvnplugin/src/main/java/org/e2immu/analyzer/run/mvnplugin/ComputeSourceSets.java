@@ -7,12 +7,12 @@ import org.e2immu.analyzer.run.config.util.ComputeDependencies;
 import org.e2immu.language.cst.api.element.SourceSet;
 import org.e2immu.language.inspection.resource.SourceSetImpl;
 import org.eclipse.aether.artifact.Artifact;
-import org.eclipse.aether.graph.DependencyFilter;
 import org.eclipse.aether.graph.DependencyNode;
 import org.eclipse.aether.util.artifact.JavaScopes;
-import org.eclipse.aether.util.filter.DependencyFilterUtils;
+import org.eclipse.aether.util.graph.transformer.ConflictResolver;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
@@ -20,20 +20,48 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 public class ComputeSourceSets {
+    private static final String DEPENDENCY_GRAPH_KEY = ComputeSourceSets.class.getName() + ".dependencyGraph";
 
     private final Path absWorkingDirectory;
     private final ProjectDependenciesResolver dependenciesResolver;
     private final MavenProject project;
     private final MavenSession session;
     private final Log log;
+    private final Phases phases;
+    private boolean skipJarsWithoutClasses;
+
+    // the class path parts by interned coordinate, and the other way around; see Coordinates
+    private final Map<Coordinates.Coordinate, SourceSet> sourceSetsByCoordinate = new HashMap<>();
+    private final Map<SourceSet, Coordinates.Coordinate> coordinates = new IdentityHashMap<>();
+    // identical sets of dependencies are shared by the source sets that have them
+    private final Map<ChildrenKey, Set<SourceSet>> childrenSets = new HashMap<>();
+
+    private record ChildrenKey(int[] ids) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ChildrenKey other && Arrays.equals(ids, other.ids);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(ids);
+        }
+    }
 
     public ComputeSourceSets(File absWorkingDirectory, ProjectDependenciesResolver dependenciesResolver,
-                             MavenProject mavenProject, MavenSession mavenSession, Log log) {
+                             MavenProject mavenProject, MavenSession mavenSession, Log log, Phases phases) {
         this.absWorkingDirectory = absWorkingDirectory.toPath();
         this.dependenciesResolver = dependenciesResolver;
         this.project = mavenProject;
         this.session = mavenSession;
         this.log = log;
+        this.phases = phases;
+    }
+
+    // opt-in, as it changes the class path; see hasClasses
+    public ComputeSourceSets withSkipJarsWithoutClasses(boolean skipJarsWithoutClasses) {
+        this.skipJarsWithoutClasses = skipJarsWithoutClasses;
+        return this;
     }
 
     public ComputeDependencies.SourceSetDependencies compute(String sourceEncoding,
@@ -45,13 +73,8 @@ public class ComputeSourceSets {
         String projectName = project.getName();
         Charset encoding = Charset.forName(sourceEncoding, Charset.defaultCharset());
 
-        Set<SourceSet> deps = new HashSet<>();
-        deps.addAll(computeClassPathParts(JavaScopes.COMPILE, false, false, sourceSetsByName,
-                excludeFromClasspathSet));
-        deps.addAll(computeClassPathParts(JavaScopes.PROVIDED, false, true, sourceSetsByName,
-                excludeFromClasspathSet));
-        deps.addAll(computeClassPathParts(JavaScopes.RUNTIME, false, true, sourceSetsByName,
-                excludeFromClasspathSet));
+        ClassPathParts classPathParts = computeClassPathParts(sourceSetsByName, excludeFromClasspathSet);
+        Set<SourceSet> deps = new HashSet<>(classPathParts.main());
         log.info("Have " + deps.size() + " dependent source sets for main");
         List<Path> sourcePaths = project.getCompileSourceRoots().stream()
                 .map(path -> absWorkingDirectory.relativize(Path.of(path))).toList();
@@ -64,8 +87,7 @@ public class ComputeSourceSets {
                     false, false, restrictToPackages, Set.copyOf(deps));
             sourceSetsByName.put(testSourceSet.name(), testSourceSet);
         }
-        deps.addAll(computeClassPathParts(JavaScopes.TEST, true, false, sourceSetsByName,
-                excludeFromClasspathSet));
+        deps.addAll(classPathParts.test());
         log.info("Have " + deps.size() + " dependent source sets for test");
         List<Path> testSourcePaths = project.getTestCompileSourceRoots().stream()
                 .map(path -> absWorkingDirectory.relativize(Path.of(path))).toList();
@@ -82,56 +104,166 @@ public class ComputeSourceSets {
         return new ComputeDependencies.SourceSetDependencies("main", sourceSetsByName);
     }
 
-    private Set<SourceSet> computeClassPathParts(String scope, boolean test, boolean runtimeOnly,
-                                                 Map<String, SourceSet> sourceSetsByName, Set<String> excludeFromClasspathSet)
-            throws DependencyResolutionException {
+    /*
+    The class path part of an artifact, after compute(); null when the artifact is not on the class path.
+     */
+    public SourceSet sourceSet(String groupId, String artifactId, String version) {
+        Coordinates.Coordinate coordinate = Coordinates.find(groupId, artifactId, version);
+        return coordinate == null ? null : sourceSetsByCoordinate.get(coordinate);
+    }
 
-        // Create dependency request for this scope
-        DependencyFilter classpathFilter = DependencyFilterUtils.classpathFilter(scope);
-        ProjectBuildingRequest buildingRequest = new DefaultProjectBuildingRequest(session.getProjectBuildingRequest());
-        buildingRequest.setProject(project);
+    private record ClassPathParts(Set<SourceSet> main, Set<SourceSet> test) {
+    }
 
-        // Resolve the dependencies
+    /*
+    One resolution, one walk: the direct dependencies of the project are split by their declared scope.
+    Test-scoped dependencies are only visible to the test source set.
+     */
+    private ClassPathParts computeClassPathParts(Map<String, SourceSet> sourceSetsByName,
+                                                 Set<String> excludeFromClasspathSet)
+            throws DependencyResolutionException {
+        DependencyNode root;
+        try (Phases.Phase ignored = phases.start("resolve dependencies")) {
+            root = resolveDependencyGraph();
+        }
+        Set<SourceSet> main = new HashSet<>();
+        Set<SourceSet> test = new HashSet<>();
+        for (SourceSet sourceSet : processDependencyNodes(root, sourceSetsByName, excludeFromClasspathSet, 1)) {
+            if (sourceSet.test()) {
+                test.add(sourceSet);
+            } else {
+                main.add(sourceSet);
+            }
+        }
+        return new ClassPathParts(main, test);
+    }
+
+    /*
+    The dependency graph does not depend on the configuration of the goal, so we resolve it once per project
+    and per session. The project's context values live as long as the MavenProject instance, i.e., the session.
+     */
+    private DependencyNode resolveDependencyGraph() throws DependencyResolutionException {
+        if (project.getContextValue(DEPENDENCY_GRAPH_KEY) instanceof DependencyNode cached) {
+            log.debug("Reusing resolved dependency graph of " + project.getId());
+            return cached;
+        }
         DependencyResolutionRequest resolutionRequest = new DefaultDependencyResolutionRequest();
         resolutionRequest.setMavenProject(project);
         resolutionRequest.setRepositorySession(session.getRepositorySession());
 
         DependencyResolutionResult resolutionResult = dependenciesResolver.resolve(resolutionRequest);
+        DependencyNode root = resolutionResult.getDependencyGraph();
+        project.setContextValue(DEPENDENCY_GRAPH_KEY, root);
+        return root;
+    }
 
-        // Process resolution result
-        log.debug("Computing class path parts for " + scope);
-        return processDependencyNodes(resolutionResult.getDependencyGraph(), test, runtimeOnly, sourceSetsByName,
-                excludeFromClasspathSet, 1);
+    /*
+    Every artifact coordinate is visited once: its source set, and the immutable set of its dependencies, are built
+    on the first visit, and shared by all later parents. An omitted node (a loser of conflict resolution, kept in
+    verbose trees) stands for the winner, which carries the dependencies and the effective scope.
+    With skipJarsWithoutClasses, an artifact without classes (a pom, a jar of resources) is not a class path part;
+    its dependencies take its place.
+     */
+    private Set<SourceSet> processDependencyNodes(DependencyNode node,
+                                                  Map<String, SourceSet> sourceSetsByName,
+                                                  Set<String> excludeFromClasspathSet,
+                                                  int indent) {
+        Set<SourceSet> results = processDependencyNodes(node, sourceSetsByName, excludeFromClasspathSet,
+                new HashSet<>(), new HashMap<>(), indent);
+        log.debug(JarIndexCache.statistics());
+        return results;
     }
 
-    private Set<SourceSet> processDependencyNodes(DependencyNode node, boolean test, boolean runtimeOnly,
+    private Set<SourceSet> processDependencyNodes(DependencyNode node,
                                                   Map<String, SourceSet> sourceSetsByName,
                                                   Set<String> excludeFromClasspathSet,
+                                                  Set<Coordinates.Coordinate> inProgress,
+                                                  Map<Coordinates.Coordinate, Set<SourceSet>> withoutClasses,
                                                   int indent) {
-        Set<SourceSet> results = new HashSet<>();
-        for (DependencyNode child : node.getChildren()) {
+        List<SourceSet> results = new ArrayList<>(node.getChildren().size());
+        for (DependencyNode dependencyNode : node.getChildren()) {
+            DependencyNode child = winner(dependencyNode);
             Artifact artifact = child.getArtifact();
-            String name = artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion();
-            if (!sourceSetsByName.containsKey(name) &&
-                (excludeFromClasspathSet.isEmpty() || !excludeFromClasspathSet.contains(artifact.getArtifactId()))) {
-                Set<SourceSet> children;
-                if (child.getChildren().isEmpty()) {
-                    children = Set.of();
-                } else {
-                    children = Set.copyOf(processDependencyNodes(child, test, runtimeOnly, sourceSetsByName,
-                            excludeFromClasspathSet, indent + 1));
+            if (!excludeFromClasspathSet.isEmpty() && excludeFromClasspathSet.contains(artifact.getArtifactId())) {
+                continue;
+            }
+            Coordinates.Coordinate coordinate = Coordinates.intern(artifact.getGroupId(), artifact.getArtifactId(),
+                    artifact.getVersion());
+            Set<SourceSet> replacement = withoutClasses.get(coordinate);
+            if (replacement != null) {
+                results.addAll(replacement);
+                continue;
+            }
+            SourceSet sourceSet = sourceSetsByCoordinate.get(coordinate);
+            if (sourceSet == null) {
+                String name = coordinate.name();
+                // a cycle can only arise through winners; the dependency is then already on its way up
+                if (!inProgress.add(coordinate)) continue;
+                Set<SourceSet> children = child.getChildren().isEmpty() ? Set.of()
+                        : processDependencyNodes(child, sourceSetsByName, excludeFromClasspathSet, inProgress,
+                        withoutClasses, indent + 1);
+                inProgress.remove(coordinate);
+                if (!hasClasses(name, artifact)) {
+                    log.debug("No classes in " + name + ", replaced by its " + children.size() + " dependencies");
+                    withoutClasses.put(coordinate, children);
+                    results.addAll(children);
+                    continue;
                 }
-                log.debug("**".repeat(indent) + " " + name + " has " + children.size() + " child(ren)");
-                URI uri = URI.create("file:" + artifact.getFile().getPath());
-                SourceSet sourceSet = new SourceSetImpl(name, null, uri, null, test,
+                String scope = child.getDependency() == null ? JavaScopes.COMPILE : child.getDependency().getScope();
+                boolean test = JavaScopes.TEST.equals(scope);
+                boolean runtimeOnly = JavaScopes.PROVIDED.equals(scope) || JavaScopes.RUNTIME.equals(scope);
+                if (log.isDebugEnabled()) {
+                    log.debug("**".repeat(indent) + " " + name + " (" + scope + ") has " + children.size()
+                              + " child(ren)");
+                }
+                URI uri = Coordinates.uri(coordinate, artifact.getFile());
+                sourceSet = new SourceSetImpl(name, null, uri, null, test,
                         true, true, false, runtimeOnly, null,
                         children);
                 sourceSetsByName.put(name, sourceSet);
-                log.debug("Added class path part " + name);
-                results.add(sourceSet);
+                sourceSetsByCoordinate.put(coordinate, sourceSet);
+                coordinates.put(sourceSet, coordinate);
             }
+            results.add(sourceSet);
         }
-        return results;
+        return childrenSet(results);
+    }
+
+    private Set<SourceSet> childrenSet(List<SourceSet> sourceSets) {
+        if (sourceSets.isEmpty()) return Set.of();
+        int[] ids = new int[sourceSets.size()];
+        for (int i = 0; i < ids.length; ++i) {
+            Coordinates.Coordinate coordinate = coordinates.get(sourceSets.get(i));
+            if (coordinate == null) return Set.copyOf(sourceSets);
+            ids[i] = coordinate.id();
+        }
+        Arrays.sort(ids);
+        int distinct = 0;
+        for (int i = 0; i < ids.length; ++i) {
+            if (i == 0 || ids[i] != ids[i - 1]) ids[distinct++] = ids[i];
+        }
+        return childrenSets.computeIfAbsent(new ChildrenKey(Arrays.copyOf(ids, distinct)),
+                k -> Set.copyOf(sourceSets));
+    }
+
+    /*
+    Without skipJarsWithoutClasses, every artifact is a class path part, as it always was.
+     */
+    private boolean hasClasses(String name, Artifact artifact) {
+        if (!skipJarsWithoutClasses) return true;
+        if ("pom".equals(artifact.getExtension())) return false;
+        try {
+            JarIndexCache.JarIndex index = JarIndexCache.get(name, artifact.getFile());
+            return index == null || index.classes() > 0;
+        } catch (IOException e) {
+            log.warn("Cannot read " + artifact.getFile() + ": " + e.getMessage());
+            return true;
+        }
+    }
+
+    private static DependencyNode winner(DependencyNode node) {
+        Object winner = node.getData().get(ConflictResolver.NODE_DATA_WINNER);
+        return winner instanceof DependencyNode w && w.getArtifact() != null ? w : node;
     }
 
     private static Set<String> stringToSet(String sourcePackages) {
@@ -0,0 +1,87 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import java.io.File;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Interned artifact coordinates, shared by all goals and all modules of the build, as the JarIndexCache.
+
+A coordinate is looked up by its three parts, without building the "groupId:artifactId:version" string; that name
+is built once, when the coordinate is first seen. Each coordinate has a small int id, and the URI of its file
+is kept with it.
+
+The plugin's classes, and therefore the table, can outlive a build, e.g. in a Maven daemon; the table is bounded:
+when it holds more than MAX_ENTRIES coordinates, it is cleared, and coordinates are interned again as they are seen.
+Ids keep increasing, so an id is never reused for another coordinate; a coordinate interned again gets a new id,
+and is equal to the old one, because coordinates are compared by name.
+ */
+public class Coordinates {
+
+    public record Coordinate(int id, String groupId, String artifactId, String version, String name) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Coordinate c && name.equals(c.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+    }
+
+    private record Located(String path, URI uri) {
+    }
+
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, ConcurrentHashMap<String, Coordinate>>>
+            TABLE = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Coordinate, Located> URIS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static final AtomicInteger ENTRIES = new AtomicInteger();
+    static final int MAX_ENTRIES = 50_000;
+
+    public static Coordinate intern(String groupId, String artifactId, String version) {
+        Coordinate coordinate = TABLE.computeIfAbsent(groupId, g -> new ConcurrentHashMap<>())
+                .computeIfAbsent(artifactId, a -> new ConcurrentHashMap<>())
+                .computeIfAbsent(version, v -> {
+                    ENTRIES.incrementAndGet();
+                    return new Coordinate(NEXT_ID.getAndIncrement(), groupId, artifactId, version,
+                            groupId + ":" + artifactId + ":" + version);
+                });
+        if (ENTRIES.get() > MAX_ENTRIES) clear();
+        return coordinate;
+    }
+
+    // a concurrent intern may add to a map that is being dropped; its coordinate is then simply interned again
+    static void clear() {
+        TABLE.clear();
+        URIS.clear();
+        ENTRIES.set(0);
+    }
+
+    // null when the coordinate has not been seen in this build
+    public static Coordinate find(String groupId, String artifactId, String version) {
+        var artifacts = TABLE.get(groupId);
+        var versions = artifacts == null ? null : artifacts.get(artifactId);
+        return versions == null ? null : versions.get(version);
+    }
+
+    /*
+    The file of a coordinate is the same for all modules, unless a module of the reactor is resolved
+    to its classes directory in one module, and to its jar in another; the path is compared, not parsed.
+     */
+    public static URI uri(Coordinate coordinate, File file) {
+        String path = file.getPath();
+        Located located = URIS.get(coordinate);
+        if (located == null || !located.path().equals(path)) {
+            located = new Located(path, URI.create("file:" + path));
+            URIS.put(coordinate, located);
+        }
+        return located.uri();
+    }
+
+    public static int size() {
+        return ENTRIES.get();
+    }
+}
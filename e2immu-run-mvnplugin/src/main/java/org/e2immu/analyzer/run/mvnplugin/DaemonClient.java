@@ -0,0 +1,113 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.e2immu.analyzer.run.config.util.JsonStreaming;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+The goal's side of the analyzer daemon: sends a request, relays the daemon's log, and reports whether the daemon
+did the work. When it did not (no daemon, another plugin version, connection lost), the goal runs in-process.
+ */
+public class DaemonClient {
+    private final Path socket;
+    private final Log log;
+
+    public DaemonClient(Path socket, Log log) {
+        this.socket = socket;
+        this.log = log;
+    }
+
+    /*
+    Returns false when the daemon is not available; throws when the daemon ran the analysis, and it failed.
+     */
+    public boolean run(Map<String, Object> request) throws AnalyzerRun.AnalysisFailedException {
+        if (!Files.exists(socket)) return false;
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel),
+                    StandardCharsets.UTF_8));
+            out.write(JsonStreaming.objectMapper().writeValueAsString(request) + "\n");
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                    StandardCharsets.UTF_8));
+            String status = relay(in, log);
+            if (status != null) return end(status);
+            log.warn("Analyzer daemon closed the connection; running in-process");
+            return false;
+        } catch (IOException e) {
+            log.info("Analyzer daemon not available at " + socket + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /*
+    Relays the log lines of the daemon or of a shard worker; returns the status of the END line,
+    or null when the stream ends without one.
+     */
+    static String relay(BufferedReader in, Log log) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            int space = line.indexOf(' ');
+            String level = space < 0 ? line : line.substring(0, space);
+            String text = space < 0 ? "" : AnalyzerDaemon.unescape(line.substring(space + 1));
+            switch (level) {
+                case AnalyzerDaemon.END -> {
+                    return text;
+                }
+                case "DEBUG" -> log.debug(text);
+                case "WARN" -> log.warn(text);
+                case "ERROR" -> log.error(text);
+                default -> log.info(text);
+            }
+        }
+        return null;
+    }
+
+    private boolean end(String status) throws AnalyzerRun.AnalysisFailedException {
+        if (status.equals(AnalyzerDaemon.OK)) return true;
+        if (status.startsWith(AnalyzerDaemon.FAILED)) {
+            throw new AnalyzerRun.AnalysisFailedException(status.substring(AnalyzerDaemon.FAILED.length()).trim());
+        }
+        log.info("Analyzer daemon runs another version of the plugin, and stops; running in-process");
+        return false;
+    }
+
+    /*
+    Starts a daemon in the background, for the next run; its output goes to <socket>.log.
+     */
+    public void start(List<String> classPath, String jvmArgs, int idleMinutes, String pluginKey) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (jvmArgs != null && !jvmArgs.isBlank()) command.addAll(List.of(jvmArgs.trim().split("\\s+")));
+        command.add("-cp");
+        command.add(String.join(File.pathSeparator, classPath));
+        command.add(AnalyzerDaemon.class.getName());
+        command.add(socket.toString());
+        command.add(Integer.toString(idleMinutes));
+        command.add(pluginKey);
+        try {
+            Files.createDirectories(socket.toAbsolutePath().getParent());
+            File logFile = new File(socket + ".log");
+            new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(logFile))
+                    .redirectInput(ProcessBuilder.Redirect.from(new File(System.getProperty("os.name")
+                            .startsWith("Windows") ? "NUL" : "/dev/null")))
+                    .start();
+            log.info("Started analyzer daemon on " + socket + ", log in " + logFile);
+        } catch (IOException e) {
+            log.warn("Cannot start analyzer daemon: " + e.getMessage());
+        }
+    }
+}
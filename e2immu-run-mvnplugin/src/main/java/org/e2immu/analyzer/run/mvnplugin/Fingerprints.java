@@ -0,0 +1,71 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+
+/*
+Cheap fingerprints for cache keys: SHA-256 over strings, size and modification time for files,
+and for the files in a directory.
+ */
+public class Fingerprints {
+
+    private final MessageDigest digest;
+
+    public Fingerprints() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public Fingerprints add(String s) {
+        digest.update((s == null ? "<null>" : s).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        return this;
+    }
+
+    public Fingerprints add(byte[] bytes) {
+        digest.update(bytes);
+        return this;
+    }
+
+    // path, size and modification time of all regular files in the directory, in a stable order
+    public Fingerprints addDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) return add("no directory " + directory);
+        try (Stream<Path> stream = Files.walk(directory)) {
+            for (Path file : stream.filter(Files::isRegularFile).sorted().toList()) {
+                add(file.toString()).add(stamp(file.toFile()));
+            }
+        }
+        return this;
+    }
+
+    public String hash() {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /*
+    A directory, such as target/classes of a reactor module, is stamped by the paths, sizes and modification
+    times of the files it contains, as in addDirectory.
+     */
+    public static String stamp(File file) {
+        if (file.isFile()) return file.length() + ":" + file.lastModified();
+        if (file.isDirectory()) {
+            try {
+                return "directory " + new Fingerprints().addDirectory(file.toPath()).hash();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return "missing";
+    }
+}
@@ -0,0 +1,47 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+String keys with int counts. The counts are kept in a primitive array; the map only stores the slot of each key.
+ */
+public class Histogram {
+    private final Map<String, Integer> slots = new HashMap<>();
+    private String[] keys = new String[64];
+    private int[] counts = new int[64];
+
+    public void add(String key, int count) {
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            int newSlot = slots.size();
+            if (newSlot == keys.length) {
+                keys = Arrays.copyOf(keys, newSlot * 2);
+                counts = Arrays.copyOf(counts, newSlot * 2);
+            }
+            keys[newSlot] = key;
+            counts[newSlot] = count;
+            slots.put(key, newSlot);
+        } else {
+            counts[slot] += count;
+        }
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    public String key(int slot) {
+        return keys[slot];
+    }
+
+    public int count(int slot) {
+        return counts[slot];
+    }
+
+    public int count(String key) {
+        Integer slot = slots.get(key);
+        return slot == null ? 0 : counts[slot];
+    }
+}
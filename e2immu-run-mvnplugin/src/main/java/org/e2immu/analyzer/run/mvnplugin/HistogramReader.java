@@ -0,0 +1,91 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/*
+Reads the files of HistogramWriter; the format is detected from the first bytes of the file.
+Returns the number of entries of the histogram before truncation: more than the entries read, when the file
+holds the topN entries only.
+ */
+public class HistogramReader {
+    private static final int GZIP_MAGIC = 0x1f8b;
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(String key, int count) throws IOException;
+    }
+
+    public static int read(File file, EntryConsumer consumer) throws IOException {
+        int magic;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            magic = file.length() >= 4 ? in.readInt() : 0;
+        }
+        if (magic == HistogramWriter.BINARY_MAGIC) {
+            return readBinary(file, consumer);
+        }
+        if (magic >>> 16 == GZIP_MAGIC) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                    Files.newInputStream(file.toPath())), StandardCharsets.UTF_8))) {
+                return readText(reader, consumer);
+            }
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return readText(reader, consumer);
+        }
+    }
+
+    // header: "# top <n> of <total> entries"
+    private static int readText(BufferedReader reader, EntryConsumer consumer) throws IOException {
+        String line;
+        int entries = 0;
+        int total = -1;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("#")) {
+                String[] words = line.split("\\s+");
+                if (words.length >= 5 && "top".equals(words[1]) && "of".equals(words[3])) {
+                    total = Integer.parseInt(words[4]);
+                }
+                continue;
+            }
+            int space = line.indexOf(' ');
+            if (space > 0) {
+                consumer.accept(line.substring(space + 1), Integer.parseInt(line.substring(0, space)));
+                ++entries;
+            }
+        }
+        return Math.max(total, entries);
+    }
+
+    // version 1 has no count of entries before truncation
+    private static int readBinary(File file, EntryConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.getInt(); // magic
+            int version = buffer.getInt();
+            if (version != 1 && version != HistogramWriter.BINARY_VERSION) {
+                throw new IOException("Unsupported histogram version " + version + " in " + file);
+            }
+            int n = buffer.getInt();
+            int total = version == 1 ? n : buffer.getInt();
+            int countsStart = buffer.position();
+            int offsetsStart = countsStart + 4 * n;
+            int keysStart = offsetsStart + 4 * (n + 1);
+            for (int i = 0; i < n; ++i) {
+                int start = buffer.getInt(offsetsStart + 4 * i);
+                int end = buffer.getInt(offsetsStart + 4 * (i + 1));
+                byte[] bytes = new byte[end - start];
+                ByteBuffer key = buffer.slice(keysStart + start, end - start);
+                key.get(bytes);
+                consumer.accept(new String(bytes, StandardCharsets.UTF_8), buffer.getInt(countsStart + 4 * i));
+            }
+            return total;
+        }
+    }
+}
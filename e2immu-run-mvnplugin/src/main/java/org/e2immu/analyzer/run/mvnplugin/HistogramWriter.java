@@ -0,0 +1,200 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/*
+Writes a histogram sorted by decreasing count, ties broken by key.
+
+TEXT: one line per entry, "<count> <key>"; when truncated, preceded by the line "# top <n> of <total> entries"
+GZIP: the text format, gzip'ed
+BINARY: big-endian; magic "E2HG", version, number of entries n, number of entries before truncation,
+        then n counts, then n+1 offsets into the UTF-8 key bytes that follow.
+        Entries can be read at random positions from a memory-mapped file.
+
+With topN > 0, only the topN most frequent entries are selected, in a bounded heap. The header records that the
+histogram was truncated, so that aggregate-statistics can refuse it.
+
+Entries that already come in output order are written through an EntryWriter, without holding them in memory.
+ */
+public class HistogramWriter {
+    public static final int BINARY_MAGIC = 0x45324847;
+    public static final int BINARY_VERSION = 2;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public enum Format {
+        TEXT, GZIP, BINARY;
+
+        public static Format from(String s) {
+            return s == null || s.isBlank() ? TEXT : valueOf(s.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final Format format;
+    private final int topN;
+
+    public HistogramWriter(Format format, int topN) {
+        this.format = format;
+        this.topN = topN;
+    }
+
+    public interface EntryWriter extends Closeable {
+        void write(String key, int count) throws IOException;
+    }
+
+    public void write(Histogram histogram, File file) throws IOException {
+        String[] keys = new String[histogram.size()];
+        for (int slot = 0; slot < keys.length; ++slot) keys[slot] = histogram.key(slot);
+        Arrays.sort(keys);
+        long[] selected = select(histogram, keys);
+        try (EntryWriter writer = open(file, selected.length, keys.length)) {
+            for (long packed : selected) writer.write(key(keys, packed), count(packed));
+        }
+    }
+
+    /*
+    The caller writes exactly 'entries' entries, by decreasing count, ties by key; 'total' is the number of entries
+    before truncation. The binary format writes the counts as they come, the offsets and keys to temporary files
+    next to the output, and appends those when closed.
+     */
+    public EntryWriter open(File file, int entries, int total) throws IOException {
+        return switch (format) {
+            case TEXT -> textWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()),
+                    StandardCharsets.UTF_8), entries, total);
+            case GZIP -> textWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file.toPath()),
+                    BUFFER_SIZE), StandardCharsets.UTF_8), entries, total);
+            case BINARY -> binaryWriter(file, entries, total);
+        };
+    }
+
+    private static EntryWriter textWriter(Writer out, int entries, int total) throws IOException {
+        Writer writer = new BufferedWriter(out, BUFFER_SIZE);
+        if (entries < total) writer.write("# top " + entries + " of " + total + " entries\n");
+        return new EntryWriter() {
+            @Override
+            public void write(String key, int count) throws IOException {
+                writer.write(Integer.toString(count));
+                writer.write(' ');
+                writer.write(key);
+                writer.write('\n');
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+        };
+    }
+
+    private static EntryWriter binaryWriter(File file, int entries, int total) throws IOException {
+        File offsetsFile = new File(file.getPath() + ".offsets");
+        File keysFile = new File(file.getPath() + ".keys");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file.toPath()), BUFFER_SIZE));
+        DataOutputStream offsets = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(offsetsFile.toPath()), BUFFER_SIZE));
+        OutputStream keys = new BufferedOutputStream(Files.newOutputStream(keysFile.toPath()), BUFFER_SIZE);
+        out.writeInt(BINARY_MAGIC);
+        out.writeInt(BINARY_VERSION);
+        out.writeInt(entries);
+        out.writeInt(total);
+        offsets.writeInt(0);
+        return new EntryWriter() {
+            private int offset;
+            private int written;
+
+            @Override
+            public void write(String key, int count) throws IOException {
+                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(count);
+                offset += bytes.length;
+                offsets.writeInt(offset);
+                keys.write(bytes);
+                ++written;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try (out) {
+                    offsets.close();
+                    keys.close();
+                    if (written != entries) {
+                        throw new IOException("Expected " + entries + " entries for " + file + ", got " + written);
+                    }
+                    Files.copy(offsetsFile.toPath(), out);
+                    Files.copy(keysFile.toPath(), out);
+                } finally {
+                    Files.deleteIfExists(offsetsFile.toPath());
+                    Files.deleteIfExists(keysFile.toPath());
+                }
+            }
+        };
+    }
+
+    /*
+    An entry is packed in a long: the high int holds MAX_VALUE - count, the low int the rank of the key
+    in alphabetical order. Ascending order of the longs is the order of the output.
+     */
+    private long[] select(Histogram histogram, String[] keys) {
+        int n = keys.length;
+        boolean bounded = topN > 0 && topN < n;
+        long[] heap = new long[bounded ? topN : n];
+        int size = 0;
+        for (int rank = 0; rank < n; ++rank) {
+            long packed = ((long) (Integer.MAX_VALUE - histogram.count(keys[rank])) << 32) | rank;
+            if (!bounded) {
+                heap[size++] = packed;
+            } else if (size < topN) {
+                heap[size] = packed;
+                siftUp(heap, size++);
+            } else if (packed < heap[0]) {
+                heap[0] = packed;
+                siftDown(heap, size);
+            }
+        }
+        Arrays.sort(heap, 0, size);
+        return size == heap.length ? heap : Arrays.copyOf(heap, size);
+    }
+
+    // max-heap: the root is the entry that drops out first
+    private static void siftUp(long[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heap[parent] >= heap[i]) return;
+            swap(heap, parent, i);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        int i = 0;
+        while (true) {
+            int largest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && heap[left] > heap[largest]) largest = left;
+            if (right < size && heap[right] > heap[largest]) largest = right;
+            if (largest == i) return;
+            swap(heap, i, largest);
+            i = largest;
+        }
+    }
+
+    private static void swap(long[] heap, int i, int j) {
+        long t = heap[i];
+        heap[i] = heap[j];
+        heap[j] = t;
+    }
+
+    private static int count(long packed) {
+        return Integer.MAX_VALUE - (int) (packed >>> 32);
+    }
+
+    private static String key(String[] keys, long packed) {
+        return keys[(int) packed];
+    }
+}
@@ -0,0 +1,278 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.e2immu.analyzer.modification.io.LoadAnalyzedPackageFiles;
+import org.e2immu.analyzer.modification.io.WriteAnalysis;
+import org.e2immu.analyzer.run.config.util.JsonStreaming;
+import org.e2immu.language.cst.api.analysis.Codec;
+import org.e2immu.language.cst.api.element.SourceSet;
+import org.e2immu.language.cst.api.info.Info;
+import org.e2immu.language.cst.api.info.TypeInfo;
+import org.e2immu.language.cst.api.runtime.Runtime;
+import org.e2immu.language.inspection.api.resource.InputConfiguration;
+import org.e2immu.util.internal.util.Trie;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+State of the incremental mode, kept in one directory:
+
+hashes.txt: first line is the configuration key, then one line per primary type, "<content hash> <fqn>"
+analysis/<package>/: the analysis results of the primary types of that package, written by WriteAnalysis
+
+A primary type must be re-analyzed when its source changed, or when it depends, directly or indirectly,
+on a type that must be re-analyzed. Results are stored per package, so the re-analysis is widened
+to complete packages. A package that lost a primary type, deleted or renamed, counts as changed, so that its
+stored results, which still contain that type, are rewritten rather than loaded. All other packages are loaded
+from their stored results; the results of packages that no longer exist are removed.
+ */
+public class IncrementalAnalysis {
+    private static final String HASHES = "hashes.txt";
+    private static final String ANALYSIS = "analysis";
+
+    private final File directory;
+    private final Log log;
+
+    private Map<String, String> currentHashes;
+    private String configurationKey;
+    private Set<String> packagesToWrite;
+    private Map<String, List<TypeInfo>> primaryTypesByPackage;
+
+    public IncrementalAnalysis(File directory, Log log) {
+        this.directory = directory;
+        this.log = log;
+    }
+
+    public static String configurationKey(InputConfiguration inputConfiguration, String... parameters)
+            throws IOException {
+        Fingerprints fingerprints = new Fingerprints()
+                .add(JsonStreaming.objectMapper().writeValueAsString(inputConfiguration));
+        for (SourceSet set : inputConfiguration.classPathParts()) {
+            if (set.uri() != null && "file".equals(set.uri().getScheme())) {
+                fingerprints.add(Fingerprints.stamp(new File(set.uri().getSchemeSpecificPart())));
+            }
+        }
+        for (String parameter : parameters) fingerprints.add(parameter);
+        return fingerprints.hash();
+    }
+
+    /*
+    Computes which part of the analysis order has to be analyzed, and loads the stored results of all other
+    primary types. Returns the full order when there is no usable state.
+     */
+    public List<Info> prepare(String configurationKey,
+                              Collection<TypeInfo> primaryTypes,
+                              IntGraph<Info> dependencyGraph,
+                              List<Info> order,
+                              Codec codec) throws IOException {
+        this.configurationKey = configurationKey;
+        this.currentHashes = computeHashes(primaryTypes);
+        this.primaryTypesByPackage = primaryTypes.stream()
+                .collect(Collectors.groupingBy(TypeInfo::packageName, TreeMap::new, Collectors.toList()));
+
+        Map<String, String> previousHashes = readHashes(configurationKey);
+        if (previousHashes == null) {
+            packagesToWrite = primaryTypesByPackage.keySet();
+            return order;
+        }
+        Set<String> changedTypes = changedTypes(previousHashes, currentHashes);
+        Set<String> packagesWithVanishedTypes = vanishedTypes(previousHashes, currentHashes).stream()
+                .map(IncrementalAnalysis::packageName).collect(Collectors.toUnmodifiableSet());
+        Set<TypeInfo> changed = primaryTypes.stream()
+                .filter(ti -> changedTypes.contains(ti.fullyQualifiedName())
+                              || packagesWithVanishedTypes.contains(ti.packageName()))
+                .collect(Collectors.toUnmodifiableSet());
+        Set<String> packagesToAnalyze = reverseClosure(changed, dependencyGraph).stream()
+                .map(TypeInfo::packageName)
+                .collect(Collectors.toCollection(TreeSet::new));
+        Set<String> packagesToLoad = new TreeSet<>(primaryTypesByPackage.keySet());
+        packagesToLoad.removeAll(packagesToAnalyze);
+        List<String> missing = packagesToLoad.stream()
+                .filter(p -> !analysisDirectory(p).isDirectory()).toList();
+        if (!missing.isEmpty()) {
+            log.info("Incremental analysis: no stored results for " + missing + ", analyzing everything");
+            packagesToWrite = primaryTypesByPackage.keySet();
+            return order;
+        }
+        log.info("Incremental analysis: " + changedTypes.size() + " changed, added or removed primary type(s),"
+                 + " re-analyzing " + packagesToAnalyze.size() + " package(s), loading " + packagesToLoad.size()
+                 + " package(s)");
+        if (!packagesToLoad.isEmpty()) {
+            List<String> directories = packagesToLoad.stream()
+                    .map(p -> analysisDirectory(p).getAbsolutePath()).toList();
+            new LoadAnalyzedPackageFiles().go(codec, directories);
+        }
+        packagesToWrite = packagesToAnalyze;
+        return order.stream()
+                .filter(info -> packagesToAnalyze.contains(info.typeInfo().primaryType().packageName()))
+                .toList();
+    }
+
+    // the primary types that are new, that changed, or that are gone
+    static Set<String> changedTypes(Map<String, String> previousHashes, Map<String, String> currentHashes) {
+        Set<String> changed = new TreeSet<>(vanishedTypes(previousHashes, currentHashes));
+        currentHashes.forEach((fqn, hash) -> {
+            if (!hash.equals(previousHashes.get(fqn))) changed.add(fqn);
+        });
+        return changed;
+    }
+
+    static Set<String> vanishedTypes(Map<String, String> previousHashes, Map<String, String> currentHashes) {
+        Set<String> vanished = new TreeSet<>(previousHashes.keySet());
+        vanished.removeAll(currentHashes.keySet());
+        return vanished;
+    }
+
+    // primary types only: the package is everything before the last dot
+    static String packageName(String primaryTypeFqn) {
+        int dot = primaryTypeFqn.lastIndexOf('.');
+        return dot < 0 ? "" : primaryTypeFqn.substring(0, dot);
+    }
+
+    /*
+    The edges of the dependency graph point from an element to the elements it depends on.
+     */
+    private static Set<TypeInfo> reverseClosure(Set<TypeInfo> changed, IntGraph<Info> dependencyGraph) {
+        Map<TypeInfo, Integer> typeIds = new HashMap<>();
+        List<TypeInfo> types = new ArrayList<>();
+        int[] typeOf = new int[dependencyGraph.size()];
+        for (int id = 0; id < typeOf.length; ++id) {
+            typeOf[id] = typeIds.computeIfAbsent(dependencyGraph.vertex(id).typeInfo().primaryType(), t -> {
+                types.add(t);
+                return types.size() - 1;
+            });
+        }
+        IntGraph.Builder builder = new IntGraph.Builder(types.size());
+        for (int from = 0; from < typeOf.length; ++from) {
+            for (int k = dependencyGraph.start(from); k < dependencyGraph.end(from); ++k) {
+                int to = typeOf[dependencyGraph.target(k)];
+                if (typeOf[from] != to) builder.add(to, typeOf[from]);
+            }
+        }
+        IntGraph<Integer> dependents = builder.build();
+        BitSet closure = new BitSet(types.size());
+        int[] toDo = new int[types.size()];
+        int n = 0;
+        for (TypeInfo typeInfo : changed) {
+            Integer id = typeIds.get(typeInfo);
+            if (id != null && !closure.get(id)) {
+                closure.set(id);
+                toDo[n++] = id;
+            }
+        }
+        while (n > 0) {
+            int t = toDo[--n];
+            for (int k = dependents.start(t); k < dependents.end(t); ++k) {
+                int dependent = dependents.target(k);
+                if (!closure.get(dependent)) {
+                    closure.set(dependent);
+                    toDo[n++] = dependent;
+                }
+            }
+        }
+        Set<TypeInfo> result = new HashSet<>(changed);
+        closure.stream().forEach(id -> result.add(types.get(id)));
+        return result;
+    }
+
+    /*
+    Writes the results of the packages that were analyzed in this run, removes those of packages that are gone,
+    then writes the hashes.
+     */
+    public void store(Runtime runtime, Codec codec) throws IOException {
+        removeStalePackages(primaryTypesByPackage.keySet());
+        WriteAnalysis writeAnalysis = new WriteAnalysis(runtime);
+        for (String packageName : packagesToWrite) {
+            File packageDirectory = analysisDirectory(packageName);
+            deleteRecursively(packageDirectory.toPath());
+            if (packageDirectory.mkdirs()) {
+                log.debug("Created " + packageDirectory);
+            }
+            writePackage(writeAnalysis, codec, packageDirectory, primaryTypesByPackage.get(packageName));
+        }
+        Files.createDirectories(directory.toPath());
+        StringBuilder sb = new StringBuilder(configurationKey).append("\n");
+        new TreeMap<>(currentHashes).forEach((fqn, hash) -> sb.append(hash).append(" ").append(fqn).append("\n"));
+        Files.writeString(directory.toPath().resolve(HASHES), sb, StandardCharsets.UTF_8);
+        log.info("Incremental analysis: stored results of " + packagesToWrite.size() + " package(s) in " + directory);
+    }
+
+    void removeStalePackages(Set<String> packages) throws IOException {
+        File[] directories = new File(directory, ANALYSIS).listFiles(File::isDirectory);
+        if (directories == null) return;
+        Set<String> names = packages.stream().map(IncrementalAnalysis::directoryName).collect(Collectors.toSet());
+        for (File packageDirectory : directories) {
+            if (!names.contains(packageDirectory.getName())) {
+                deleteRecursively(packageDirectory.toPath());
+                log.debug("Removed the results of " + packageDirectory.getName() + ", a package that is gone");
+            }
+        }
+    }
+
+    static void writePackage(WriteAnalysis writeAnalysis, Codec codec, File packageDirectory,
+                             List<TypeInfo> primaryTypes) throws IOException {
+        Trie<TypeInfo> typeTrie = new Trie<>();
+        primaryTypes.forEach(ti -> typeTrie.add(ti.packageName().split("\\."), ti));
+        writeAnalysis.write(packageDirectory, typeTrie, codec, set -> "");
+    }
+
+    // the directory name of a package, also for the unnamed package
+    static String directoryName(String packageName) {
+        return packageName.isEmpty() ? "_" : packageName;
+    }
+
+    private File analysisDirectory(String packageName) {
+        return new File(new File(directory, ANALYSIS), directoryName(packageName));
+    }
+
+    private Map<String, String> readHashes(String configurationKey) throws IOException {
+        Path hashes = directory.toPath().resolve(HASHES);
+        if (!Files.isRegularFile(hashes)) {
+            log.info("Incremental analysis: no previous state in " + directory + ", analyzing everything");
+            return null;
+        }
+        List<String> lines = Files.readAllLines(hashes, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !configurationKey.equals(lines.getFirst())) {
+            log.info("Incremental analysis: configuration or class path changed, analyzing everything");
+            return null;
+        }
+        Map<String, String> map = new HashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            int space = line.indexOf(' ');
+            if (space > 0) map.put(line.substring(space + 1), line.substring(0, space));
+        }
+        return map;
+    }
+
+    private static Map<String, String> computeHashes(Collection<TypeInfo> primaryTypes) throws IOException {
+        Map<String, String> map = new HashMap<>();
+        for (TypeInfo primaryType : primaryTypes) {
+            URI uri = primaryType.compilationUnit().uri();
+            String hash;
+            if (uri != null && "file".equals(uri.getScheme())) {
+                hash = new Fingerprints().add(Files.readAllBytes(Path.of(uri))).hash();
+            } else {
+                hash = "unknown-" + UUID.randomUUID();
+            }
+            map.put(primaryType.fullyQualifiedName(), hash);
+        }
+        return map;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (Stream<Path> stream = Files.walk(path)) {
+            for (Path p : stream.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+}
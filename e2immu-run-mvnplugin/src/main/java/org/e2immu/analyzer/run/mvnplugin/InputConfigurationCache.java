@@ -0,0 +1,104 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.e2immu.analyzer.run.config.util.JsonStreaming;
+import org.e2immu.language.cst.api.element.SourceSet;
+import org.e2immu.language.inspection.api.resource.InputConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Iterator;
+import java.util.Map;
+
+/*
+Stores the linearized input configuration in a JSON file, in the format of the write-input-configuration goal.
+
+The key is a hash of the effective POM, the source roots, and the goal's parameters: together, they determine
+which artifacts are resolved. On top of that, size and modification time of every class path part
+are recorded, so that a re-downloaded snapshot or a rebuilt reactor jar invalidates the entry.
+ */
+public class InputConfigurationCache {
+    private static final int VERSION = 1;
+
+    private final File cacheFile;
+    private final Log log;
+
+    public InputConfigurationCache(File cacheFile, Log log) {
+        this.cacheFile = cacheFile;
+        this.log = log;
+    }
+
+    public static String key(MavenProject project, String... parameters) throws IOException {
+        Fingerprints fingerprints = new Fingerprints().add(String.valueOf(VERSION));
+        StringWriter pom = new StringWriter();
+        new MavenXpp3Writer().write(pom, project.getModel());
+        fingerprints.add(pom.toString());
+        project.getCompileSourceRoots().forEach(fingerprints::add);
+        project.getTestCompileSourceRoots().forEach(fingerprints::add);
+        for (String parameter : parameters) fingerprints.add(parameter);
+        return fingerprints.hash();
+    }
+
+    public InputConfiguration load(String key) {
+        if (!cacheFile.isFile()) {
+            log.info("Input configuration cache miss: no cache file");
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            ObjectMapper mapper = JsonStreaming.objectMapper();
+            JsonNode root = mapper.readTree(cacheFile);
+            if (root.path("version").asInt() != VERSION || !key.equals(root.path("key").asText())) {
+                log.info("Input configuration cache miss: POM or parameters changed");
+                return null;
+            }
+            Iterator<Map.Entry<String, JsonNode>> files = root.path("files").fields();
+            while (files.hasNext()) {
+                Map.Entry<String, JsonNode> entry = files.next();
+                if (!entry.getValue().asText().equals(Fingerprints.stamp(new File(entry.getKey())))) {
+                    log.info("Input configuration cache miss: " + entry.getKey() + " changed");
+                    return null;
+                }
+            }
+            InputConfiguration inputConfiguration = mapper.treeToValue(root.get("inputConfiguration"),
+                    InputConfiguration.class);
+            long saved = root.path("computeMillis").asLong() - (System.currentTimeMillis() - start);
+            log.info("Input configuration cache hit, saved ~" + Math.max(0, saved) + " ms");
+            return inputConfiguration;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Input configuration cache miss: cannot read " + cacheFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void store(String key, InputConfiguration inputConfiguration, long computeMillis) {
+        try {
+            if (cacheFile.getParentFile().mkdirs()) {
+                log.debug("Created directories for " + cacheFile.getAbsolutePath());
+            }
+            ObjectMapper mapper = JsonStreaming.objectMapper();
+            ObjectNode root = mapper.createObjectNode();
+            root.put("version", VERSION);
+            root.put("key", key);
+            root.put("computeMillis", computeMillis);
+            ObjectNode files = root.putObject("files");
+            for (SourceSet set : inputConfiguration.classPathParts()) {
+                if (set.uri() != null && "file".equals(set.uri().getScheme())) {
+                    File file = new File(set.uri().getSchemeSpecificPart());
+                    files.put(file.getPath(), Fingerprints.stamp(file));
+                }
+            }
+            root.set("inputConfiguration", mapper.valueToTree(inputConfiguration));
+            mapper.writeValue(cacheFile, root);
+            log.info("Stored input configuration in cache " + cacheFile + ", computed in " + computeMillis + " ms");
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot write input configuration cache " + cacheFile + ": " + e.getMessage());
+        }
+    }
+}
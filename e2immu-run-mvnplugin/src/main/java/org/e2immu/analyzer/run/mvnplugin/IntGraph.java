@@ -0,0 +1,134 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.e2immu.util.internal.graph.G;
+import org.e2immu.util.internal.graph.V;
+
+import java.util.*;
+
+/*
+A directed graph in compressed sparse row form: vertices are numbered 0..size-1, and the successors of vertex i
+are targets[offsets[i]] .. targets[offsets[i+1]-1]. Apart from the table between vertices and their numbers,
+there is no object per vertex or per edge.
+
+The analysis order is computed on the G of the prep analyzer, as ComputeAnalysisOrder requires; the G is converted
+after that, so for a moment both are held, and the peak heap of the prep phase does not go down. The plugin's own
+passes over the dependency graph (partitioning, incremental analysis, the work-list) use this form, so that only
+this form, not the G, is held while the modification analyzer runs.
+ */
+public class IntGraph<T> {
+    private final List<T> vertices;
+    private final Map<T, Integer> ids;
+    private final int[] offsets;
+    private final int[] targets;
+
+    private IntGraph(List<T> vertices, Map<T, Integer> ids, int[] offsets, int[] targets) {
+        this.vertices = vertices;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /*
+    Numbers the vertices in the order of the list; edges to vertices outside the list, and self-loops, are dropped.
+     */
+    public static <T> IntGraph<T> of(G<T> graph, List<T> vertices) {
+        Map<T, Integer> ids = new HashMap<>(vertices.size() * 2);
+        for (T t : vertices) ids.putIfAbsent(t, ids.size());
+        List<T> distinct = ids.size() == vertices.size() ? List.copyOf(vertices)
+                : List.copyOf(new LinkedHashSet<>(vertices));
+        Builder builder = new Builder(distinct.size());
+        for (int from = 0; from < distinct.size(); ++from) {
+            Map<V<T>, Long> edges = graph.edges(new V<>(distinct.get(from)));
+            if (edges == null) continue;
+            for (V<T> v : edges.keySet()) {
+                Integer to = ids.get(v.t());
+                if (to != null && to != from) builder.add(from, to);
+            }
+        }
+        return builder.build(distinct, ids);
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    // the vertices in the order of their numbers
+    public List<T> vertices() {
+        return vertices;
+    }
+
+    public T vertex(int id) {
+        return vertices.get(id);
+    }
+
+    // -1 when not a vertex of this graph
+    public int id(T t) {
+        Integer id = ids.get(t);
+        return id == null ? -1 : id;
+    }
+
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    // successors of vertex id: target(k) for k in [start(id), end(id))
+    public int start(int id) {
+        return offsets[id];
+    }
+
+    public int end(int id) {
+        return offsets[id + 1];
+    }
+
+    public int target(int k) {
+        return targets[k];
+    }
+
+    public IntGraph<T> reversed() {
+        Builder builder = new Builder(size());
+        for (int from = 0; from < size(); ++from) {
+            for (int k = offsets[from]; k < offsets[from + 1]; ++k) builder.add(targets[k], from);
+        }
+        return builder.build(vertices, ids);
+    }
+
+    /*
+    Edges are collected in a growing pair of int arrays, then sorted into rows by counting.
+     */
+    public static class Builder {
+        private final int size;
+        private int[] from = new int[16];
+        private int[] to = new int[16];
+        private int count;
+
+        public Builder(int size) {
+            this.size = size;
+        }
+
+        public Builder add(int from, int to) {
+            if (count == this.from.length) {
+                this.from = Arrays.copyOf(this.from, count * 2);
+                this.to = Arrays.copyOf(this.to, count * 2);
+            }
+            this.from[count] = from;
+            this.to[count] = to;
+            ++count;
+            return this;
+        }
+
+        public <T> IntGraph<T> build(List<T> vertices, Map<T, Integer> ids) {
+            int[] offsets = new int[size + 1];
+            for (int i = 0; i < count; ++i) ++offsets[from[i] + 1];
+            for (int i = 0; i < size; ++i) offsets[i + 1] += offsets[i];
+            int[] next = Arrays.copyOf(offsets, size);
+            int[] targets = new int[count];
+            for (int i = 0; i < count; ++i) targets[next[from[i]]++] = to[i];
+            return new IntGraph<>(vertices, ids, offsets, targets);
+        }
+
+        // a graph on 0..size-1 only, without a vertex table
+        public IntGraph<Integer> build() {
+            return build(null, null);
+        }
+    }
+}
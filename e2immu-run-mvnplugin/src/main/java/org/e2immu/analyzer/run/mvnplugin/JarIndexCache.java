@@ -0,0 +1,94 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/*
+What a jar on the class path contains: the number of class files, and their packages. It is used by the jar filter
+of ComputeSourceSets (skipJarsWithoutClasses) and by LazyClassPath, both opt-in.
+
+It is not a cache of inspected types: the types belong to the runtime of one JavaInspector, and the analyzers
+write their results into them, so every module still inspects the jars it needs.
+
+The cache is shared by all goals and all modules that run in the same JVM, i.e., the whole reactor: the plugin's
+classes are loaded once per build. An index is keyed by the artifact coordinate and the size and modification time
+of the file, so a rebuilt snapshot is indexed again. Indices are immutable; they are held through soft references,
+in least-recently-used order, and at most maxEntries of them are kept.
+ */
+public class JarIndexCache {
+
+    public record JarIndex(String coordinate, int classes, Set<String> packages) {
+    }
+
+    private static final Object LOCK = new Object();
+    private static int maxEntries = 2000;
+    private static final LinkedHashMap<String, SoftReference<JarIndex>> CACHE =
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SoftReference<JarIndex>> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    public static void setMaxEntries(int max) {
+        synchronized (LOCK) {
+            maxEntries = Math.max(1, max);
+        }
+    }
+
+    /*
+    Returns null when the file is not a jar, e.g., a directory of classes of another module in the reactor.
+    Two threads indexing the same jar at the same time both do the work; the result is the same.
+     */
+    public static JarIndex get(String coordinate, File file) throws IOException {
+        if (file == null || !file.isFile() || !file.getName().endsWith(".jar")) return null;
+        String key = coordinate + "@" + Fingerprints.stamp(file);
+        synchronized (LOCK) {
+            SoftReference<JarIndex> reference = CACHE.get(key);
+            JarIndex cached = reference == null ? null : reference.get();
+            if (cached != null) {
+                HITS.incrementAndGet();
+                return cached;
+            }
+        }
+        MISSES.incrementAndGet();
+        JarIndex index = index(coordinate, file);
+        synchronized (LOCK) {
+            CACHE.put(key, new SoftReference<>(index));
+        }
+        return index;
+    }
+
+    private static JarIndex index(String coordinate, File file) throws IOException {
+        int classes = 0;
+        Set<String> packages = new HashSet<>();
+        try (ZipFile zipFile = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (!name.endsWith(".class") || name.endsWith("module-info.class")
+                    || name.startsWith("META-INF/")) {
+                    continue;
+                }
+                ++classes;
+                int slash = name.lastIndexOf('/');
+                packages.add(slash < 0 ? "" : name.substring(0, slash).replace('/', '.'));
+            }
+        }
+        return new JarIndex(coordinate, classes, Set.copyOf(packages));
+    }
+
+    public static String statistics() {
+        synchronized (LOCK) {
+            return "jar index cache: " + CACHE.size() + " entries, " + HITS.get() + " hits, " + MISSES.get()
+                   + " misses";
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.e2immu.language.cst.api.element.SourceSet;
+import org.e2immu.language.inspection.api.resource.InputConfiguration;
+import org.e2immu.language.inspection.resource.InputConfigurationImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+Removes the jars from the class path that the sources cannot reach, before the inspector is initialized.
+
+A jar is reachable when one of its packages occurs in the sources as a qualified name: an import, a package
+declaration, or a fully qualified reference in the code. The jars that a reachable jar depends on stay as well,
+because super types and signatures of its classes may refer to them. The direct dependencies of the project
+always stay, whatever their scope: a provided or optional dependency of a kept jar is only on the class path
+when the project declares it, and it is not among that jar's dependencies. Their own dependencies stay only
+when they are reachable. Other class path parts (the JDK, directories of classes) always stay.
+The scan is textual, and over-approximates: every dotted name and each of its prefixes counts as a candidate
+package, so comments and method call chains can only keep a jar, never drop one.
+
+Only the jars' central directories are read, through the JarIndexCache.
+ */
+public class LazyClassPath {
+    private static final Pattern DOTTED_NAME = Pattern.compile("[A-Za-z_$][\\w$]*(?:\\s*\\.\\s*[A-Za-z_$][\\w$]*)+");
+
+    private final Log log;
+
+    public LazyClassPath(Log log) {
+        this.log = log;
+    }
+
+    public InputConfiguration prune(InputConfiguration inputConfiguration) throws IOException {
+        Set<String> candidates = candidatePackages(inputConfiguration);
+        List<SourceSet> classPathParts = inputConfiguration.classPathParts();
+
+        Map<String, SourceSet> keep = new HashMap<>();
+        Deque<SourceSet> toDo = new ArrayDeque<>();
+        for (SourceSet part : classPathParts) {
+            JarIndexCache.JarIndex index = JarIndexCache.get(part.name(), file(part));
+            if (index == null || index.packages().stream().anyMatch(candidates::contains)) {
+                toDo.add(part);
+            }
+        }
+        while (!toDo.isEmpty()) {
+            SourceSet part = toDo.removeFirst();
+            if (keep.putIfAbsent(part.name(), part) == null) {
+                toDo.addAll(part.dependencies());
+            }
+        }
+        for (SourceSet set : inputConfiguration.sourceSets()) {
+            for (SourceSet dependency : set.dependencies()) {
+                if (dependency.externalLibrary()) keep.putIfAbsent(dependency.name(), dependency);
+            }
+        }
+        if (keep.size() >= classPathParts.size()) {
+            log.info("Lazy class path: the sources reach all " + classPathParts.size() + " class path parts");
+            return inputConfiguration;
+        }
+        List<SourceSet> kept = classPathParts.stream().filter(p -> keep.containsKey(p.name())).toList();
+        log.info("Lazy class path: keeping " + kept.size() + " of " + classPathParts.size()
+                 + " class path parts, reached from " + candidates.size() + " candidate package names");
+        if (log.isDebugEnabled()) {
+            log.debug("Dropped: " + classPathParts.stream().map(SourceSet::name)
+                    .filter(name -> !keep.containsKey(name)).sorted().collect(Collectors.joining(", ")));
+        }
+
+        InputConfiguration.Builder builder = new InputConfigurationImpl.Builder();
+        if (inputConfiguration.alternativeJREDirectory() != null) {
+            builder.setAlternativeJREDirectory(inputConfiguration.alternativeJREDirectory().toString());
+        }
+        if (inputConfiguration.workingDirectory() != null) {
+            builder.setWorkingDirectory(inputConfiguration.workingDirectory().toString());
+        }
+        Map<String, SourceSet> rebuilt = new HashMap<>();
+        for (SourceSet set : inputConfiguration.sourceSets()) {
+            builder.addSourceSets(withoutDropped(set, keep, rebuilt));
+        }
+        builder.addClassPathParts(kept.toArray(SourceSet[]::new));
+        return builder.build();
+    }
+
+    /*
+    Source sets depend on each other (test on main) and on class path parts; both kinds of edges are rewritten,
+    so that all source sets refer to the same, pruned, instances.
+     */
+    private static SourceSet withoutDropped(SourceSet set, Map<String, SourceSet> keep, Map<String, SourceSet> rebuilt) {
+        if (set.externalLibrary()) return set;
+        SourceSet done = rebuilt.get(set.name());
+        if (done != null) return done;
+        Set<SourceSet> dependencies = new HashSet<>();
+        for (SourceSet dependency : set.dependencies()) {
+            if (!dependency.externalLibrary()) {
+                dependencies.add(withoutDropped(dependency, keep, rebuilt));
+            } else if (keep.containsKey(dependency.name()) || file(dependency) == null) {
+                dependencies.add(dependency);
+            }
+        }
+        SourceSet result = set.withDependencies(Set.copyOf(dependencies));
+        rebuilt.put(set.name(), result);
+        return result;
+    }
+
+    private static File file(SourceSet sourceSet) {
+        URI uri = sourceSet.uri();
+        if (uri == null || !"file".equals(uri.getScheme())) return null;
+        try {
+            return new File(uri);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static Set<String> candidatePackages(InputConfiguration inputConfiguration) throws IOException {
+        List<Path> sourceFiles = sourceFiles(inputConfiguration);
+        try {
+            return sourceFiles.parallelStream().flatMap(LazyClassPath::candidatePackages)
+                    .collect(Collectors.toUnmodifiableSet());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static List<Path> sourceFiles(InputConfiguration inputConfiguration) throws IOException {
+        Path workingDirectory = inputConfiguration.workingDirectory() == null ? Path.of("")
+                : inputConfiguration.workingDirectory();
+        List<Path> sourceFiles = new ArrayList<>();
+        for (SourceSet set : inputConfiguration.sourceSets()) {
+            if (set.externalLibrary() || set.sourceDirectories() == null) continue;
+            for (Path directory : set.sourceDirectories()) {
+                Path resolved = workingDirectory.resolve(directory);
+                if (!Files.isDirectory(resolved)) continue;
+                try (Stream<Path> stream = Files.walk(resolved)) {
+                    stream.filter(p -> p.toString().endsWith(".java")).forEach(sourceFiles::add);
+                }
+            }
+        }
+        return sourceFiles;
+    }
+
+    /*
+    Identifiers are ASCII in practice; reading as ISO-8859-1 never fails on other encodings.
+     */
+    private static Stream<String> candidatePackages(Path sourceFile) {
+        try {
+            return qualifiedNamePrefixes(Files.readString(sourceFile, StandardCharsets.ISO_8859_1)).stream();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // every dotted name in the source, and each of its prefixes
+    static Set<String> qualifiedNamePrefixes(String source) {
+        Set<String> names = new HashSet<>();
+        Matcher m = DOTTED_NAME.matcher(source);
+        while (m.find()) {
+            String name = m.group().replaceAll("\\s+", "");
+            names.add(name);
+            for (int dot = name.lastIndexOf('.'); dot > 0; dot = name.lastIndexOf('.', dot - 1)) {
+                names.add(name.substring(0, dot));
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,145 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.e2immu.language.cst.api.element.SourceSet;
+import org.e2immu.language.cst.api.expression.ConstructorCall;
+import org.e2immu.language.cst.api.expression.MethodCall;
+import org.e2immu.language.cst.api.info.MethodInfo;
+import org.e2immu.language.cst.api.info.TypeInfo;
+import org.e2immu.language.inspection.api.parser.ParseResult;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Counts the calls from the sources to methods and constructors outside the sources, in one parallel walk
+over the method bodies of the primary types.
+
+Every called method gets an int id. Each worker counts in its own int arrays, split in calls from main and
+calls from test sources; the arrays are summed when the workers' results are merged.
+ */
+public class MethodCallFrequencies {
+
+    public enum Selection {ALL, MAIN, TEST}
+
+    private final MethodInfo[] methods;
+    private final int[] main;
+    private final int[] test;
+
+    private MethodCallFrequencies(MethodInfo[] methods, int[] main, int[] test) {
+        this.methods = methods;
+        this.main = main;
+        this.test = test;
+    }
+
+    public static MethodCallFrequencies compute(ParseResult parseResult) {
+        Set<TypeInfo> primaryTypes = new HashSet<>(parseResult.primaryTypes());
+        Map<MethodInfo, Integer> ids = new ConcurrentHashMap<>();
+        AtomicInteger idGenerator = new AtomicInteger();
+        Counters counters = parseResult.primaryTypes().parallelStream()
+                .collect(Counters::new,
+                        (c, primaryType) -> c.visit(primaryType, primaryTypes, ids, idGenerator),
+                        Counters::add);
+        MethodInfo[] methods = new MethodInfo[idGenerator.get()];
+        ids.forEach((mi, id) -> methods[id] = mi);
+        return new MethodCallFrequencies(methods, Arrays.copyOf(counters.main, methods.length),
+                Arrays.copyOf(counters.test, methods.length));
+    }
+
+    private static class Counters {
+        int[] main = new int[256];
+        int[] test = new int[256];
+
+        void visit(TypeInfo primaryType, Set<TypeInfo> primaryTypes, Map<MethodInfo, Integer> ids,
+                   AtomicInteger idGenerator) {
+            boolean inTest = primaryType.compilationUnit().sourceSet().test();
+            primaryType.recursiveSubTypeStream()
+                    .flatMap(TypeInfo::constructorAndMethodStream)
+                    .forEach(mi -> mi.methodBody().visit(e -> {
+                        MethodInfo methodInfo = null;
+                        if (e instanceof MethodCall mc
+                            && !primaryTypes.contains(mc.methodInfo().typeInfo().primaryType())) {
+                            methodInfo = mc.methodInfo();
+                        } else if (e instanceof ConstructorCall cc && cc.constructor() != null
+                                   && !primaryTypes.contains(cc.constructor().typeInfo().primaryType())) {
+                            methodInfo = cc.constructor();
+                        }
+                        if (methodInfo != null) {
+                            int id = ids.computeIfAbsent(methodInfo, m -> idGenerator.getAndIncrement());
+                            increment(inTest, id);
+                        }
+                        return true;
+                    }));
+        }
+
+        private void increment(boolean inTest, int id) {
+            if (id >= main.length) {
+                int newLength = Math.max(id + 1, main.length * 2);
+                main = Arrays.copyOf(main, newLength);
+                test = Arrays.copyOf(test, newLength);
+            }
+            if (inTest) ++test[id];
+            else ++main[id];
+        }
+
+        void add(Counters other) {
+            if (other.main.length > main.length) {
+                main = Arrays.copyOf(main, other.main.length);
+                test = Arrays.copyOf(test, other.main.length);
+            }
+            for (int i = 0; i < other.main.length; ++i) {
+                main[i] += other.main[i];
+                test[i] += other.test[i];
+            }
+        }
+    }
+
+    private int count(Selection selection, int id) {
+        return switch (selection) {
+            case ALL -> main[id] + test[id];
+            case MAIN -> main[id];
+            case TEST -> test[id];
+        };
+    }
+
+    public int size() {
+        return methods.length;
+    }
+
+    public MethodInfo method(int id) {
+        return methods[id];
+    }
+
+    public int frequency(int id) {
+        return count(Selection.ALL, id);
+    }
+
+    public Map<MethodInfo, Integer> frequencies() {
+        Map<MethodInfo, Integer> map = new HashMap<>();
+        for (int id = 0; id < methods.length; ++id) {
+            map.put(methods[id], count(Selection.ALL, id));
+        }
+        return map;
+    }
+
+    public Histogram methodHistogram(Selection selection) {
+        Histogram histogram = new Histogram();
+        for (int id = 0; id < methods.length; ++id) {
+            int count = count(selection, id);
+            if (count > 0) histogram.add(methods[id].fullyQualifiedName(), count);
+        }
+        return histogram;
+    }
+
+    public Histogram sourceSetHistogram(Selection selection) {
+        Histogram histogram = new Histogram();
+        for (int id = 0; id < methods.length; ++id) {
+            int count = count(selection, id);
+            if (count > 0) {
+                SourceSet sourceSet = methods[id].typeInfo().compilationUnit().sourceSet();
+                if (sourceSet != null) histogram.add(sourceSet.name(), count);
+            }
+        }
+        return histogram;
+    }
+}
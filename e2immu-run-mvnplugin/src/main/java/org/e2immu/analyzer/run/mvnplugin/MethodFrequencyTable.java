@@ -0,0 +1,81 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.e2immu.language.cst.api.info.MethodInfo;
+
+import java.util.*;
+
+/*
+The frequencies that the annotated API writer puts in comments, indexed by an interned int id per method.
+
+The called methods keep the ids of MethodCallFrequencies; the methods they override, which need not be called
+themselves, get the next ids. Both frequencies live in int arrays, 0 meaning none: a called method has been
+called at least once.
+
+The override frequencies are computed in one pass over the called methods and the methods each of them overrides,
+up the type hierarchy: a method that is overridden gets the frequency of its most frequently called override. Unlike
+keeping the first frequency seen, this does not depend on the order of the methods.
+ */
+public class MethodFrequencyTable {
+    private final Map<MethodInfo, Integer> ids;
+    private final List<MethodInfo> calledMethods;
+    private final int[] frequency;
+    private final int[] overrideFrequency;
+
+    private MethodFrequencyTable(Map<MethodInfo, Integer> ids, List<MethodInfo> calledMethods,
+                                 int[] frequency, int[] overrideFrequency) {
+        this.ids = ids;
+        this.calledMethods = calledMethods;
+        this.frequency = frequency;
+        this.overrideFrequency = overrideFrequency;
+    }
+
+    public static MethodFrequencyTable of(MethodCallFrequencies methodCallFrequencies) {
+        int n = methodCallFrequencies.size();
+        Map<MethodInfo, Integer> ids = new HashMap<>(2 * n);
+        MethodInfo[] called = new MethodInfo[n];
+        int[] frequency = new int[n];
+        for (int id = 0; id < n; ++id) {
+            called[id] = methodCallFrequencies.method(id);
+            frequency[id] = methodCallFrequencies.frequency(id);
+            ids.put(called[id], id);
+        }
+        int[] overrideFrequency = new int[n];
+        for (int id = 0; id < n; ++id) {
+            int f = frequency[id];
+            for (MethodInfo overridden : called[id].overrides()) {
+                Integer known = ids.get(overridden);
+                int oid;
+                if (known == null) {
+                    oid = ids.size();
+                    ids.put(overridden, oid);
+                } else {
+                    oid = known;
+                }
+                if (oid >= overrideFrequency.length) {
+                    overrideFrequency = Arrays.copyOf(overrideFrequency, Math.max(oid + 1, 2 * overrideFrequency.length));
+                }
+                if (f > overrideFrequency[oid]) overrideFrequency[oid] = f;
+            }
+        }
+        return new MethodFrequencyTable(ids, List.of(called), frequency,
+                Arrays.copyOf(overrideFrequency, ids.size()));
+    }
+
+    public List<MethodInfo> calledMethods() {
+        return calledMethods;
+    }
+
+    // -1 when the method is neither called, nor overridden by a called method
+    public int id(MethodInfo methodInfo) {
+        Integer id = ids.get(methodInfo);
+        return id == null ? -1 : id;
+    }
+
+    public int frequency(int id) {
+        return id < frequency.length ? frequency[id] : 0;
+    }
+
+    public int overrideFrequency(int id) {
+        return overrideFrequency[id];
+    }
+}
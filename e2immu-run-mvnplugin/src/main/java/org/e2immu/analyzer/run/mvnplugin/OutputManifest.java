@@ -0,0 +1,121 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+/*
+Keeps the generated files of a goal stable on disk. The goal writes into a staging directory; only files whose
+content differs from the previous run are copied to the output directory, and files that are no longer generated
+are removed. Unchanged files keep their modification time, so that downstream compilers and IDEs do not
+see a change.
+
+The manifest is stored next to the output directory, as <output directory>.manifest:
+the first line is the key of the inputs, then one line per generated file, "<content hash> <relative path>".
+ */
+public class OutputManifest {
+    private final File outputDirectory;
+    private final File manifestFile;
+    private final File stagingDirectory;
+    private final Log log;
+    private final String inputsKey;
+    private final Map<String, String> previous;
+    private final String previousInputsKey;
+
+    public OutputManifest(File outputDirectory, String inputsKey, Log log) throws IOException {
+        this.outputDirectory = outputDirectory;
+        this.inputsKey = inputsKey;
+        this.log = log;
+        File parent = outputDirectory.getAbsoluteFile().getParentFile();
+        this.manifestFile = new File(parent, outputDirectory.getName() + ".manifest");
+        this.stagingDirectory = new File(parent, outputDirectory.getName() + ".staging");
+        this.previous = new HashMap<>();
+        if (manifestFile.isFile()) {
+            List<String> lines = Files.readAllLines(manifestFile.toPath(), StandardCharsets.UTF_8);
+            previousInputsKey = lines.isEmpty() ? null : lines.getFirst();
+            for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+                int space = line.indexOf(' ');
+                if (space > 0) previous.put(line.substring(space + 1), line.substring(0, space));
+            }
+        } else {
+            previousInputsKey = null;
+        }
+    }
+
+    /*
+    True when the inputs did not change since the previous run, and all files generated then are still present.
+     */
+    public boolean upToDate() {
+        return inputsKey.equals(previousInputsKey)
+               && previous.keySet().stream().allMatch(path -> new File(outputDirectory, path).isFile());
+    }
+
+    public File prepareStagingDirectory() throws IOException {
+        deleteRecursively(stagingDirectory.toPath());
+        Files.createDirectories(stagingDirectory.toPath());
+        return stagingDirectory;
+    }
+
+    public void commit() throws IOException {
+        Path staging = stagingDirectory.toPath();
+        Path output = outputDirectory.toPath();
+        Map<String, String> current = new TreeMap<>();
+        int written = 0;
+        int unchanged = 0;
+        long bytesSaved = 0;
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(staging)) {
+            files = stream.filter(Files::isRegularFile).sorted().toList();
+        }
+        for (Path file : files) {
+            String relative = staging.relativize(file).toString().replace(File.separatorChar, '/');
+            byte[] content = Files.readAllBytes(file);
+            String hash = new Fingerprints().add(content).hash();
+            current.put(relative, hash);
+            Path target = output.resolve(relative);
+            if (Files.isRegularFile(target) && Files.size(target) == content.length
+                && hash.equals(previousHash(relative, target))) {
+                ++unchanged;
+                bytesSaved += content.length;
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+                ++written;
+            }
+        }
+        int deleted = 0;
+        for (String relative : previous.keySet()) {
+            if (!current.containsKey(relative) && Files.deleteIfExists(output.resolve(relative))) {
+                ++deleted;
+            }
+        }
+        StringBuilder sb = new StringBuilder(inputsKey).append("\n");
+        current.forEach((relative, hash) -> sb.append(hash).append(" ").append(relative).append("\n"));
+        Files.writeString(manifestFile.toPath(), sb, StandardCharsets.UTF_8);
+        deleteRecursively(staging);
+        log.info("Wrote " + written + " file(s) to " + outputDirectory + ", " + unchanged + " unchanged ("
+                 + bytesSaved + " bytes not rewritten), " + deleted + " stale file(s) deleted");
+    }
+
+    // without a manifest entry, e.g., on the first run with a manifest, compare with the file on disk
+    private String previousHash(String relative, Path target) throws IOException {
+        String hash = previous.get(relative);
+        return hash != null ? hash : new Fingerprints().add(Files.readAllBytes(target)).hash();
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (Stream<Path> stream = Files.walk(path)) {
+            for (Path p : stream.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.e2immu.analyzer.aapi.parser.AnnotatedApiParser;
+import org.e2immu.analyzer.modification.common.defaults.ShallowAnalyzer;
+import org.e2immu.analyzer.modification.io.WriteAnalysis;
+import org.e2immu.language.cst.api.analysis.Codec;
+import org.e2immu.language.cst.api.element.SourceSet;
+import org.e2immu.language.cst.api.info.FieldInfo;
+import org.e2immu.language.cst.api.info.ParameterInfo;
+import org.e2immu.language.cst.api.info.TypeInfo;
+import org.e2immu.language.cst.api.runtime.Runtime;
+import org.e2immu.language.cst.api.type.ParameterizedType;
+import org.e2immu.language.cst.impl.analysis.PropertyProviderImpl;
+import org.e2immu.language.cst.io.CodecImpl;
+import org.e2immu.util.internal.util.Trie;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/*
+The shallow analyzer and the JSON writer of compile-annotated-apis, on a pool of threads.
+
+The shallow analysis of a type reads the properties of its super types, and of the types of its fields,
+parameters and return values. On one thread, a type sees those that come earlier in the list of parsed types
+analyzed, and those that come later not yet analyzed. To see the same on a pool, two parsed types of which one
+refers to the other are ordered as in the list: the later one only starts when the earlier one is done. The types
+are layered by the longest chain of such pairs before them; a layer only starts when the previous one is done,
+and within a layer, the types are split into chunks, each analyzed by its own ShallowAnalyzer on the shared
+Runtime. Types that refer to many others therefore lengthen the chain, and limit the parallelism.
+
+That the analyzer reads no other types is an assumption about the analyzer; verifyThreads in
+CompileAnnotatedAPIsMojo compares the output with that of one thread.
+
+The analyzed types are returned in the order of one thread: by the position of their primary type in the list.
+Writing is split per package; each thread has its own codec.
+ */
+public class ParallelShallowAnalysis {
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final Log log;
+    private final Runtime runtime;
+    private final int threads;
+
+    public ParallelShallowAnalysis(Log log, Runtime runtime, int threads) {
+        this.log = log;
+        this.runtime = runtime;
+        this.threads = threads;
+    }
+
+    static List<List<TypeInfo>> layers(List<TypeInfo> types) {
+        Map<TypeInfo, Integer> positions = positions(types);
+        List<List<Integer>> earlier = new ArrayList<>(types.size());
+        for (int i = 0; i < types.size(); ++i) earlier.add(new ArrayList<>());
+        for (int i = 0; i < types.size(); ++i) {
+            for (TypeInfo referenced : referencedTypes(types.get(i))) {
+                Integer j = positions.get(referenced);
+                if (j == null || j == i) continue;
+                earlier.get(Math.max(i, j)).add(Math.min(i, j));
+            }
+        }
+        int[] depth = new int[types.size()];
+        List<List<TypeInfo>> layers = new ArrayList<>();
+        for (int i = 0; i < types.size(); ++i) {
+            for (int j : earlier.get(i)) depth[i] = Math.max(depth[i], depth[j] + 1);
+            while (layers.size() <= depth[i]) layers.add(new ArrayList<>());
+            layers.get(depth[i]).add(types.get(i));
+        }
+        return layers;
+    }
+
+    private static Map<TypeInfo, Integer> positions(List<TypeInfo> types) {
+        Map<TypeInfo, Integer> positions = new HashMap<>(2 * types.size());
+        for (int i = 0; i < types.size(); ++i) positions.putIfAbsent(types.get(i), i);
+        return positions;
+    }
+
+    // the primary types of the super types, and of the types in the signatures, of the type and its subtypes
+    private static Set<TypeInfo> referencedTypes(TypeInfo typeInfo) {
+        Set<TypeInfo> referenced = new HashSet<>();
+        Set<TypeInfo> types = new LinkedHashSet<>();
+        types.add(typeInfo);
+        typeInfo.recursiveSubTypeStream().forEach(types::add);
+        for (TypeInfo type : types) {
+            type.recursiveSuperTypeStream().forEach(superType -> referenced.add(superType.primaryType()));
+            for (FieldInfo fieldInfo : type.fields()) addTypes(fieldInfo.type(), referenced);
+            type.constructorAndMethodStream().forEach(methodInfo -> {
+                addTypes(methodInfo.returnType(), referenced);
+                for (ParameterInfo parameterInfo : methodInfo.parameters()) {
+                    addTypes(parameterInfo.parameterizedType(), referenced);
+                }
+            });
+        }
+        return referenced;
+    }
+
+    private static void addTypes(ParameterizedType parameterizedType, Set<TypeInfo> referenced) {
+        if (parameterizedType == null) return;
+        if (parameterizedType.typeInfo() != null) referenced.add(parameterizedType.typeInfo().primaryType());
+        for (ParameterizedType parameter : parameterizedType.parameters()) addTypes(parameter, referenced);
+    }
+
+    public List<TypeInfo> analyze(AnnotatedApiParser annotatedApiParser, List<TypeInfo> types)
+            throws InterruptedException {
+        List<List<TypeInfo>> layers = layers(types);
+        log.info("Running shallow analyzer on " + types.size() + " types in " + layers.size() + " layers, on "
+                 + threads + " threads");
+        List<TypeInfo> allTypes = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (List<TypeInfo> layer : layers) {
+                int chunkSize = Math.max(1, layer.size() / (threads * CHUNKS_PER_THREAD));
+                List<Future<List<TypeInfo>>> futures = new ArrayList<>();
+                for (int i = 0; i < layer.size(); i += chunkSize) {
+                    List<TypeInfo> chunk = layer.subList(i, Math.min(layer.size(), i + chunkSize));
+                    futures.add(executor.submit(() -> new ShallowAnalyzer(runtime, annotatedApiParser, true)
+                            .go(chunk).allTypes()));
+                }
+                for (Future<List<TypeInfo>> future : futures) {
+                    allTypes.addAll(get(future));
+                }
+            }
+        }
+        // stable: the types of one primary type keep the order in which the analyzer returned them
+        Map<TypeInfo, Integer> positions = positions(types);
+        allTypes.sort(Comparator.comparingInt(ti -> positions.getOrDefault(ti.primaryType(), types.size())));
+        return allTypes;
+    }
+
+    public void write(File directory, List<TypeInfo> types, Function<SourceSet, String> packagePrefixGenerator)
+            throws IOException, InterruptedException {
+        Map<String, List<TypeInfo>> byPackage = new TreeMap<>();
+        for (TypeInfo typeInfo : types) {
+            byPackage.computeIfAbsent(typeInfo.packageName(), p -> new ArrayList<>()).add(typeInfo);
+        }
+        // CodecImpl keeps state while encoding
+        ThreadLocal<Codec> codecs = ThreadLocal.withInitial(() -> new CodecImpl(runtime, PropertyProviderImpl::get,
+                null, null));
+        List<Future<?>> futures = new ArrayList<>(byPackage.size());
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (List<TypeInfo> inPackage : byPackage.values()) {
+                futures.add(executor.submit(() -> {
+                    Trie<TypeInfo> typeTrie = new Trie<>();
+                    inPackage.forEach(ti -> typeTrie.add(ti.packageName().split("\\."), ti));
+                    try {
+                        new WriteAnalysis(runtime).write(directory, typeTrie, codecs.get(), packagePrefixGenerator);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                get(future);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /*
+    The relative paths of the files that are not the same in both directories.
+     */
+    public static List<String> differences(Path directory, Path other) throws IOException {
+        SortedSet<String> paths = new TreeSet<>(relativeFiles(directory));
+        paths.addAll(relativeFiles(other));
+        List<String> differences = new ArrayList<>();
+        for (String path : paths) {
+            Path file = directory.resolve(path);
+            Path otherFile = other.resolve(path);
+            if (!Files.isRegularFile(file) || !Files.isRegularFile(otherFile) || Files.mismatch(file, otherFile) >= 0) {
+                differences.add(path);
+            }
+        }
+        return differences;
+    }
+
+    private static List<String> relativeFiles(Path directory) throws IOException {
+        try (Stream<Path> stream = Files.walk(directory)) {
+            return stream.filter(Files::isRegularFile).map(p -> directory.relativize(p).toString()).toList();
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            if (e.getCause() instanceof Error error) throw error;
+            throw new IllegalStateException("Shallow analysis task failed", e.getCause());
+        }
+    }
+}
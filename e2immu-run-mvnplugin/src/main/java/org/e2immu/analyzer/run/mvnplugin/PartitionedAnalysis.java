@@ -0,0 +1,160 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.e2immu.analyzer.modification.common.AnalyzerException;
+import org.e2immu.analyzer.modification.linkedvariables.IteratingAnalyzer;
+import org.e2immu.language.cst.api.info.Info;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/*
+Splits the analysis order into the weakly connected components of the dependency graph. Elements of different
+components never read each other's analysis results, so the components can be analyzed concurrently,
+each by its own IteratingAnalyzer.
+
+Small components are packed into chunks, in analysis order. Exceptions are sorted by analysis order of their
+element, which does not depend on the scheduling. A sequential run reports them per iteration, so the order of
+exceptions of different iterations can differ from that of a sequential run.
+
+The analyzers share the Runtime, and assume that this is safe: the Runtime is a factory of CST objects and holds
+the predefined types, which are created when the sources are parsed. The analyzers are assumed to write only into
+the analysis of the elements they analyze, and to read only the analysis of library types besides; this class
+does not check that. Parallelism is opt-in, 1 runs a single analyzer, and the verifyParallelism parameter of the
+run goal compares the results with those of a run on one thread.
+ */
+public class PartitionedAnalysis {
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final Log log;
+    private final int parallelism;
+
+    public PartitionedAnalysis(Log log, int parallelism) {
+        this.log = log;
+        this.parallelism = parallelism;
+    }
+
+    public static List<List<Info>> components(IntGraph<Info> dependencyGraph, List<Info> order) {
+        int[] index = new int[dependencyGraph.size()];
+        Arrays.fill(index, -1);
+        for (int i = 0; i < order.size(); ++i) {
+            int id = dependencyGraph.id(order.get(i));
+            if (id >= 0) index[id] = i;
+        }
+        int[] parent = new int[order.size()];
+        for (int i = 0; i < parent.length; ++i) parent[i] = i;
+        for (int i = 0; i < parent.length; ++i) {
+            int id = dependencyGraph.id(order.get(i));
+            if (id < 0) continue;
+            for (int k = dependencyGraph.start(id); k < dependencyGraph.end(id); ++k) {
+                int j = index[dependencyGraph.target(k)];
+                if (j >= 0) union(parent, i, j);
+            }
+        }
+        // components ordered by their first element in the analysis order
+        Map<Integer, List<Info>> byRoot = new LinkedHashMap<>();
+        for (int i = 0; i < parent.length; ++i) {
+            byRoot.computeIfAbsent(find(parent, i), r -> new ArrayList<>()).add(order.get(i));
+        }
+        return List.copyOf(byRoot.values());
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int i, int j) {
+        int ri = find(parent, i);
+        int rj = find(parent, j);
+        if (ri < rj) parent[rj] = ri;
+        else if (rj < ri) parent[ri] = rj;
+    }
+
+    List<List<Info>> chunks(List<List<Info>> components) {
+        int total = components.stream().mapToInt(List::size).sum();
+        int target = Math.max(1, total / (parallelism * CHUNKS_PER_THREAD));
+        List<List<Info>> chunks = new ArrayList<>();
+        List<Info> current = new ArrayList<>();
+        for (List<Info> component : components) {
+            current.addAll(component);
+            if (current.size() >= target) {
+                chunks.add(current);
+                current = new ArrayList<>();
+            }
+        }
+        if (!current.isEmpty()) chunks.add(current);
+        return chunks;
+    }
+
+    /*
+    Exceptions are returned sorted by the position of their element in the order. In failFast mode, the analyzer
+    throws; the failure earliest in the order is rethrown. A chunk is not started anymore once a failure has been
+    seen before its first element, because it cannot report an earlier one.
+     */
+    public List<AnalyzerException> analyze(IntGraph<Info> dependencyGraph, List<Info> order,
+                                           Supplier<IteratingAnalyzer> analyzerSupplier) throws InterruptedException {
+        List<List<Info>> chunks = chunks(components(dependencyGraph, order));
+        log.info("Analyzing " + order.size() + " elements in " + chunks.size() + " independent chunk(s) on "
+                 + parallelism + " threads");
+        Map<Info, Integer> positions = new HashMap<>(2 * order.size());
+        for (int i = 0; i < order.size(); ++i) positions.putIfAbsent(order.get(i), i);
+        AtomicInteger firstFailure = new AtomicInteger(Integer.MAX_VALUE);
+        List<Future<List<AnalyzerException>>> futures = new ArrayList<>(chunks.size());
+        try (ExecutorService executor = Executors.newFixedThreadPool(parallelism)) {
+            for (List<Info> chunk : chunks) {
+                // components are packed in order of their first element, so the first element comes first
+                int chunkStart = positions.get(chunk.get(0));
+                futures.add(executor.submit(() -> {
+                    if (chunkStart > firstFailure.get()) return List.of();
+                    try {
+                        return analyzerSupplier.get().analyze(chunk).analyzerExceptions();
+                    } catch (RuntimeException e) {
+                        firstFailure.accumulateAndGet(position(e, positions, chunkStart), Math::min);
+                        throw e;
+                    }
+                }));
+            }
+        }
+        List<AnalyzerException> exceptions = new ArrayList<>();
+        RuntimeException failure = null;
+        int failurePosition = Integer.MAX_VALUE;
+        for (int i = 0; i < futures.size(); ++i) {
+            try {
+                exceptions.addAll(futures.get(i).get());
+            } catch (ExecutionException e) {
+                RuntimeException re = unwrap(e);
+                int position = position(re, positions, positions.get(chunks.get(i).get(0)));
+                if (position < failurePosition) {
+                    failure = re;
+                    failurePosition = position;
+                }
+            }
+        }
+        if (failure != null) throw failure;
+        exceptions.sort(Comparator.comparingInt(ae -> position(ae, positions, Integer.MAX_VALUE)));
+        return exceptions;
+    }
+
+    // an exception that does not name its element is placed at the start of its chunk
+    private static int position(RuntimeException e, Map<Info, Integer> positions, int otherwise) {
+        if (e instanceof AnalyzerException ae && ae.getInfo() != null) {
+            Integer position = positions.get(ae.getInfo());
+            if (position != null) return position;
+        }
+        return otherwise;
+    }
+
+    // the tasks only throw unchecked exceptions
+    private static RuntimeException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException re) return re;
+        if (cause instanceof Error error) throw error;
+        return new IllegalStateException("Analyzer task failed", cause);
+    }
+}
@@ -0,0 +1,202 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import jdk.jfr.*;
+import org.apache.maven.plugin.logging.Log;
+import org.e2immu.analyzer.run.config.util.JsonStreaming;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.*;
+
+/*
+Measures the phases of a goal: wall time, CPU time, allocated bytes, and heap in use at the end of the phase.
+
+  try (Phases.Phase phase = phases.start("parse")) { ... }
+
+CPU time and allocated bytes are those of the thread that runs the phase, so that goals running concurrently
+under "mvn -T" do not count each other's work. Work that the phase hands to other threads (partitioned analysis,
+streaming composition, writer pools) is not included. The heap in use is JVM-wide: with -T it includes other
+modules, and it is only a sample, not a peak; no JVM-wide counters are reset.
+Phases nest; a phase is started and closed on the same thread, otherwise CPU time and allocation are -1.
+
+Every phase is also emitted as a JFR event, "org.e2immu.analyzer.Phase", which costs nothing unless a recording
+with that event enabled is running, e.g. -XX:StartFlightRecording.
+ */
+public class Phases {
+
+    public record Measurement(String name, int depth, long wallNanos, long cpuNanos, long allocatedBytes,
+                              long heapUsedBytes) {
+    }
+
+    @Name("org.e2immu.analyzer.Phase")
+    @Label("Analyzer phase")
+    @Category("e2immu")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+        @Label("Goal")
+        String goal;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("CPU time")
+        @Timespan
+        long cpuTime;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+
+        @Label("Heap used")
+        @DataAmount
+        long heapUsed;
+    }
+
+    public class Phase implements AutoCloseable {
+        private final String name;
+        private final int depth;
+        private final int index;
+        private final long startNanos;
+        private final long startCpu;
+        private final long startAllocated;
+        private final PhaseEvent event;
+        private final Thread thread;
+        private boolean closed;
+
+        private Phase(String name, int depth, int index) {
+            this.name = name;
+            this.depth = depth;
+            this.index = index;
+            this.event = new PhaseEvent();
+            this.thread = Thread.currentThread();
+            event.begin();
+            this.startAllocated = allocatedBytes();
+            this.startCpu = cpuNanos();
+            this.startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            long wall = System.nanoTime() - startNanos;
+            boolean sameThread = thread == Thread.currentThread();
+            long cpu = startCpu < 0 || !sameThread ? -1 : cpuNanos() - startCpu;
+            long allocated = startAllocated < 0 || !sameThread ? -1 : allocatedBytes() - startAllocated;
+            long heapUsed = heapUsedBytes();
+            synchronized (Phases.this) {
+                if (closed) return;
+                closed = true;
+                open.remove(this);
+                measurements.set(index, new Measurement(name, depth, wall, cpu, allocated, heapUsed));
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.goal = goal;
+                event.phase = name;
+                event.cpuTime = cpu;
+                event.allocated = allocated;
+                event.heapUsed = heapUsed;
+                event.commit();
+            }
+            log.debug("Phase " + name + ": " + wall / 1_000_000 + " ms");
+        }
+    }
+
+    private final String goal;
+    private final Log log;
+    private final Instant started = Instant.now();
+    private final Deque<Phase> open = new ArrayDeque<>();
+    private final List<Measurement> measurements = new ArrayList<>();
+
+    public Phases(String goal, Log log) {
+        this.goal = goal;
+        this.log = log;
+    }
+
+    public synchronized Phase start(String name) {
+        measurements.add(null);
+        Phase phase = new Phase(name, open.size(), measurements.size() - 1);
+        open.addLast(phase);
+        return phase;
+    }
+
+    // in the order in which the phases were started; phases that have not been closed are left out
+    public synchronized List<Measurement> measurements() {
+        return measurements.stream().filter(Objects::nonNull).toList();
+    }
+
+    /*
+    formats: comma-separated, "json" and/or "csv"; the files are phases-<goal>.json and phases-<goal>.csv
+     */
+    public void write(File directory, String projectId, String formats) throws IOException {
+        Set<String> formatSet = formats == null ? Set.of()
+                : new HashSet<>(Arrays.asList(formats.toLowerCase().split("[,;]\\s*")));
+        if (!formatSet.contains("json") && !formatSet.contains("csv")) return;
+        Files.createDirectories(directory.toPath());
+        List<Measurement> list = measurements();
+        if (formatSet.contains("json")) {
+            File file = new File(directory, "phases-" + goal + ".json");
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("goal", goal);
+            report.put("project", projectId);
+            report.put("started", started.toString());
+            report.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+            report.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+            List<Map<String, Object>> phases = new ArrayList<>();
+            for (Measurement m : list) {
+                Map<String, Object> map = new LinkedHashMap<>();
+                map.put("name", m.name());
+                map.put("depth", m.depth());
+                map.put("wallNanos", m.wallNanos());
+                map.put("cpuNanos", m.cpuNanos());
+                map.put("allocatedBytes", m.allocatedBytes());
+                map.put("heapUsedBytes", m.heapUsedBytes());
+                phases.add(map);
+            }
+            report.put("phases", phases);
+            JsonStreaming.objectMapper().writerWithDefaultPrettyPrinter().writeValue(file, report);
+            log.info("Wrote phase report " + file);
+        }
+        if (formatSet.contains("csv")) {
+            File file = new File(directory, "phases-" + goal + ".csv");
+            try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                writer.write("goal,phase,depth,wallNanos,cpuNanos,allocatedBytes,heapUsedBytes\n");
+                for (Measurement m : list) {
+                    writer.write(goal + "," + csv(m.name()) + "," + m.depth() + "," + m.wallNanos() + ","
+                                 + m.cpuNanos() + "," + m.allocatedBytes() + "," + m.heapUsedBytes() + "\n");
+                }
+            }
+            log.info("Wrote phase report " + file);
+        }
+    }
+
+    private static String csv(String s) {
+        return s.contains(",") || s.contains("\"") ? "\"" + s.replace("\"", "\"\"") + "\"" : s;
+    }
+
+    private static long heapUsedBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // -1 when not supported by the JVM
+    private static long cpuNanos() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled()) {
+            return threads.getCurrentThreadCpuTime();
+        }
+        return -1;
+    }
+
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+            && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+}
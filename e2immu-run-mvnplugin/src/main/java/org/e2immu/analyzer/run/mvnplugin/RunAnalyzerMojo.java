@@ -4,25 +4,16 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
-import org.e2immu.analyzer.modification.common.AnalyzerException;
-import org.e2immu.analyzer.modification.io.LoadAnalyzedPackageFiles;
-import org.e2immu.analyzer.modification.linkedvariables.IteratingAnalyzer;
-import org.e2immu.analyzer.modification.linkedvariables.SingleIterationAnalyzer;
-import org.e2immu.analyzer.modification.linkedvariables.impl.IteratingAnalyzerImpl;
-import org.e2immu.analyzer.modification.linkedvariables.impl.SingleIterationAnalyzerImpl;
-import org.e2immu.analyzer.modification.linkedvariables.io.LinkedVariablesCodec;
-import org.e2immu.analyzer.modification.prepwork.PrepAnalyzer;
-import org.e2immu.analyzer.modification.prepwork.callgraph.ComputeAnalysisOrder;
-import org.e2immu.language.cst.api.analysis.Codec;
-import org.e2immu.language.cst.api.info.Info;
-import org.e2immu.language.cst.api.runtime.Runtime;
-import org.e2immu.language.inspection.integration.ToolChain;
-import org.e2immu.util.internal.graph.G;
+import org.e2immu.language.inspection.api.resource.InputConfiguration;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Mojo(name = RunAnalyzerMojo.RUN_ANALYZER_GOAL,
         defaultPhase = LifecyclePhase.COMPILE, threadSafe = true)
@@ -43,58 +34,208 @@ public class RunAnalyzerMojo extends CommonMojo {
     @Parameter(property = "maxIterations", defaultValue = "5")
     private int maxIterations;
 
+    /*
+    number of threads for the modification analyzer; independent parts of the dependency graph are
+    analyzed concurrently when larger than 1
+     */
+    @Parameter(property = "parallelism", defaultValue = "1")
+    private int parallelism;
+
+    /*
+    with parallelism > 1, parse the sources a second time, analyze them on one thread, and fail when the results
+    differ from those of the parallel run; doubles the work of the goal, and runs in this JVM, not in the daemon
+     */
+    @Parameter(property = "verifyParallelism", defaultValue = "false")
+    private boolean verifyParallelism;
+
+    /*
+    after the first iteration, only re-analyze the elements that changed in the previous iteration,
+    and their neighbours in the dependency graph; stops as soon as an iteration changes nothing.
+    The analyzer is then called once per iteration, with maxIterations 1, which can change the results
+    compared to one call with maxIterations; see SteppedAnalysis
+     */
+    @Parameter(property = "workList", defaultValue = "false")
+    private boolean workList;
+
+    /*
+    analyze each source set with its own analyzer, as soon as the source sets it depends on are done;
+    independent source sets, e.g., generated sources and several kinds of tests, are analyzed concurrently.
+    Combines with parallelism: the threads are shared between concurrent source sets and the independent parts
+    of each source set's dependency graph. Ignored in work-list mode.
+     */
+    @Parameter(property = "sourceSetSchedule", defaultValue = "false")
+    private boolean sourceSetSchedule;
+
+    /*
+    e.g. ${project.build.directory}/e2immu/convergence.json: the properties changed by the modification analyzer,
+    and the types with the most changes, are written to this file. It does not change how the analyzer runs.
+    With workList, the report has one entry per iteration. Otherwise the analyzer runs its iterations internally,
+    without exposing them, and the report has one entry for the whole call
+     */
+    @Parameter(property = "convergenceReport")
+    private File convergenceReport;
+
+    /*
+    only re-analyze the primary types whose source changed since the previous run, and their dependents;
+    load the stored results of all the others
+     */
+    @Parameter(property = "incremental", defaultValue = "false")
+    private boolean incremental;
+
+    @Parameter(property = "incrementalDirectory", defaultValue = "${project.build.directory}/e2immu/incremental")
+    private File incrementalDirectory;
+
+    /*
+    written by the compile-analyzed-packages goal; when present, only the packages reached by the sources are loaded.
+    When the modification analyzer reaches more of them, the sources are parsed and analyzed again, with those
+    packages loaded, so that the results are those of a run without store
+     */
+    @Parameter(property = "analyzedPackageStore", defaultValue = "${project.build.directory}/e2immu/analyzedPackages.bin")
+    private File analyzedPackageStore;
+
+    /*
+    run the analysis in a long-lived analyzer daemon, which keeps a warm JVM and prepares the JDK's types
+    for the next run; falls back to running in-process when the daemon is not available
+     */
+    @Parameter(property = "daemon", defaultValue = "false")
+    private boolean daemon;
+
+    @Parameter(property = "daemonSocket", defaultValue = "${user.home}/.e2immu/analyzer-daemon.sock")
+    private File daemonSocket;
+
+    // start a daemon in the background when none is running; the current run is done in-process
+    @Parameter(property = "daemonAutoStart", defaultValue = "true")
+    private boolean daemonAutoStart;
+
+    // projects unused for this long are evicted from the daemon; without projects, the daemon stops
+    @Parameter(property = "daemonIdleMinutes", defaultValue = "30")
+    private int daemonIdleMinutes;
+
+    @Parameter(property = "daemonJvmArgs", defaultValue = "")
+    private String daemonJvmArgs;
+
+    /*
+    when larger than 1, the sources are analyzed in (at most) this many shards, one after the other, each in
+    a forked JVM started with shardJvmArgs, e.g. -Xmx4g; see ShardedAnalysis. The results are written to
+    shardDirectory/analysis. Incremental mode and the convergence report do not apply.
+    A shard reads the types of earlier shards from the class files of the project, so the goal must run after
+    the compiler; after test-compile when the test sources are analyzed as well.
+     */
+    @Parameter(property = "shards", defaultValue = "1")
+    private int shards;
+
+    @Parameter(property = "shardDirectory", defaultValue = "${project.build.directory}/e2immu/shards")
+    private File shardDirectory;
+
+    @Parameter(property = "shardJvmArgs", defaultValue = "")
+    private String shardJvmArgs;
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}", readonly = true)
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "${project.build.testOutputDirectory}", readonly = true)
+    private File testClassesDirectory;
+
     @Override
     public void execute() throws MojoExecutionException {
-        boolean storeErrors = !"failFast".equalsIgnoreCase(errorMode);
-        boolean failWhenStoredErrors = !"report".equalsIgnoreCase(errorMode);
-
+        AnalyzerRun.Settings settings = new AnalyzerRun.Settings(modificationAnalysis, errorMode, maxIterations,
+                parallelism, incremental, absolute(incrementalDirectory), absolute(analyzedPackageStore), workList,
+                absolute(convergenceReport), sourceSetSchedule);
         try {
-            ParseSourcesResult psr = parseSources();
-            Runtime runtime = psr.javaInspector().runtime();
-
-            Codec codec = new LinkedVariablesCodec(runtime).codec();
-            new LoadAnalyzedPackageFiles().go(codec, List.of(ToolChain.currentJdkAnalyzedPackages(),
-                    ToolChain.commonLibsAnalyzedPackages()));
-
-            getLog().info("Starting prep analyzer");
-            PrepAnalyzer prepAnalyzer = new PrepAnalyzer(runtime);
-            prepAnalyzer.initialize(psr.javaInspector().compiledTypesManager().typesLoaded());
-            G<Info> dependencyGraph = prepAnalyzer.doPrimaryTypesReturnGraph(Set.copyOf(psr.parseResult().primaryTypes()));
-            ComputeAnalysisOrder cao = new ComputeAnalysisOrder();
-            List<Info> order = cao.go(dependencyGraph);
-            if (getLog().isDebugEnabled() && order.size() < 50) {
-                getLog().debug("Analysis order: " + order);
+            if (shards > 1 && modificationAnalysis) {
+                runSharded();
+            } else if (daemon && !verify(settings)) {
+                InputConfiguration inputConfiguration = makeInputConfiguration();
+                Map<String, Object> request = daemonRequest(inputConfiguration);
+                request.put("settings", settings.toMap());
+                DaemonClient client = new DaemonClient(daemonSocket.toPath(), getLog());
+                if (client.run(request)) return;
+                if (daemonAutoStart) {
+                    client.start(pluginClassPath(), daemonJvmArgs, daemonIdleMinutes, pluginKey());
+                }
+                analyzerRun(settings).run(parseSources(inputConfiguration, true));
             } else {
-                Map<String, Integer> histogram = order.stream().collect(Collectors.toUnmodifiableMap(Info::info,
-                        i -> 1, Integer::sum));
-                getLog().info("Type histogram: " + histogram);
-            }
-            if (modificationAnalysis) {
-                getLog().info("Starting modification analyzer");
-                IteratingAnalyzer.Configuration configuration = new IteratingAnalyzerImpl.ConfigurationBuilder()
-                        .setStoreErrors(storeErrors)
-                        .setMaxIterations(maxIterations)
-                        .build();
-                IteratingAnalyzer analyzer = new IteratingAnalyzerImpl(runtime, configuration);
-                IteratingAnalyzer.Output output = analyzer.analyze(order);
-
-                if (storeErrors && !output.analyzerExceptions().isEmpty()) {
-                    int n = output.analyzerExceptions().size();
-                    getLog().error("Modification analysis halted with " + n + " exceptions");
-                    for (AnalyzerException ae : output.analyzerExceptions()) {
-                        getLog().error("In " + ae.getInfo() + ": " + ae.getMessage());
-                    }
-                    if (failWhenStoredErrors) {
-                        throw new MojoExecutionException("Failed to run analyzer, caught " + n + " exceptions");
+                ParseSourcesResult psr = analyzerRun(settings).run(parseSources(true));
+                if (verify(settings)) {
+                    try (Phases.Phase ignored = phases().start("verify parallelism")) {
+                        verifyParallelism(settings, psr);
                     }
                 }
-            } else {
-                getLog().info("Skip modification analyzer");
             }
+        } catch (AnalyzerRun.AnalysisFailedException e) {
+            throw new MojoExecutionException(e.getMessage());
         } catch (MojoExecutionException e) {
             throw e;
         } catch (Exception e) {
             throw new MojoExecutionException("Failed to run analyzer", e);
+        } finally {
+            writePhaseReport();
+        }
+    }
+
+    private AnalyzerRun analyzerRun(AnalyzerRun.Settings settings) {
+        return new AnalyzerRun(settings, getLog(), phases())
+                .withSourceParser(new SourceParser(getLog(), phases(), lazyClassPath()));
+    }
+
+    private boolean verify(AnalyzerRun.Settings settings) {
+        return verifyParallelism && settings.modificationAnalysis() && settings.parallelism() > 1
+               && !settings.stepped();
+    }
+
+    /*
+    The types of the first run hold its results, so the sources are parsed again, into a new inspector.
+    The run on one thread analyzes everything, without the incremental state and without schedule.
+     */
+    private void verifyParallelism(AnalyzerRun.Settings settings, ParseSourcesResult psr) throws Exception {
+        ParseSourcesResult again = doParseSources(psr.inputConfiguration());
+        AnalyzerRun.Settings oneThread = new AnalyzerRun.Settings(true, settings.errorMode(),
+                settings.maxIterations(), 1, false, null, settings.analyzedPackageStore(), false, null, false);
+        ParseSourcesResult sequentialResult = analyzerRun(oneThread).run(again);
+        Path parallel = Files.createTempDirectory("verifyParallelism");
+        Path sequential = Files.createTempDirectory("verifyParallelism");
+        try {
+            AnalyzerRun.writeResults(psr, parallel.toFile());
+            AnalyzerRun.writeResults(sequentialResult, sequential.toFile());
+            List<String> differences = ParallelShallowAnalysis.differences(parallel, sequential);
+            if (!differences.isEmpty()) {
+                throw new MojoExecutionException("The results on " + settings.parallelism() + " threads differ"
+                                                 + " from those on one thread in " + differences.size()
+                                                 + " file(s): " + differences);
+            }
+            getLog().info("The results on " + settings.parallelism() + " threads are the same as on one thread");
+        } finally {
+            for (Path directory : List.of(parallel, sequential)) {
+                try (Stream<Path> stream = Files.walk(directory)) {
+                    for (Path p : stream.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+                }
+            }
         }
     }
+
+    private void runSharded() throws Exception {
+        if (incremental || convergenceReport != null) {
+            getLog().warn("Incremental mode and the convergence report are ignored in a sharded run");
+        }
+        InputConfiguration inputConfiguration = makeInputConfiguration();
+        Map<String, Object> request = daemonRequest(inputConfiguration);
+        request.put("settings", new AnalyzerRun.Settings(true, errorMode, maxIterations, parallelism, false,
+                null, absolute(analyzedPackageStore), workList, null, false).toMap());
+        request.put("classesDirectories", List.of(absolute(classesDirectory).getPath(),
+                absolute(testClassesDirectory).getPath()));
+        List<Set<String>> plan;
+        try (Phases.Phase ignored = phases().start("plan shards")) {
+            plan = ShardedAnalysis.plan(inputConfiguration, shards);
+        }
+        ShardedAnalysis shardedAnalysis = new ShardedAnalysis(getLog(), absolute(shardDirectory), pluginClassPath(),
+                shardJvmArgs);
+        try (Phases.Phase ignored = phases().start("sharded analysis")) {
+            shardedAnalysis.run(request, plan);
+        }
+    }
+
+    // the daemon has another working directory
+    private static File absolute(File file) {
+        return file == null ? null : file.getAbsoluteFile();
+    }
 }
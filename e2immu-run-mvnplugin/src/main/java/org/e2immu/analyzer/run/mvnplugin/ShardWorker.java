@@ -0,0 +1,146 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.apache.maven.plugin.logging.Log;
+import org.e2immu.analyzer.run.config.util.JsonStreaming;
+import org.e2immu.language.cst.api.element.SourceSet;
+import org.e2immu.language.inspection.api.integration.JavaInspector;
+import org.e2immu.language.inspection.api.parser.ParseResult;
+import org.e2immu.language.inspection.api.resource.InputConfiguration;
+import org.e2immu.language.inspection.resource.InputConfigurationImpl;
+import org.e2immu.language.inspection.resource.SourceSetImpl;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/*
+The JVM that analyzes one shard of a sharded run, see ShardedAnalysis. It reads its request from a file, parses the
+sources of the packages of its shard, and runs the analyzer on them.
+
+It speaks the protocol of the analyzer daemon on its standard output: log lines "<LEVEL> <text>", and a final
+line "END OK" or "END FAILED <message>". Anything else that is printed goes to standard error.
+ */
+public class ShardWorker {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: ShardWorker <request file>");
+            System.exit(1);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out),
+                StandardCharsets.UTF_8));
+        System.setOut(System.err);
+        Map<String, Object> request = JsonStreaming.objectMapper().readValue(new File(args[0]),
+                new TypeReference<>() {
+                });
+        AnalyzerDaemon.ResponseLog log = new AnalyzerDaemon.ResponseLog(out,
+                Boolean.TRUE.equals(request.get("debug")));
+        int exitCode = 0;
+        try {
+            run(request, log);
+            log.end(AnalyzerDaemon.OK);
+        } catch (AnalyzerRun.AnalysisFailedException e) {
+            log.end(AnalyzerDaemon.FAILED + " " + e.getMessage());
+            exitCode = 2;
+        } catch (InterruptedException e) {
+            log.end(AnalyzerDaemon.FAILED + " interrupted");
+            exitCode = 1;
+        } catch (IOException | RuntimeException e) {
+            log.error(e);
+            log.end(AnalyzerDaemon.FAILED + " " + e);
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void run(Map<String, Object> request, AnalyzerDaemon.ResponseLog log)
+            throws IOException, InterruptedException, AnalyzerRun.AnalysisFailedException {
+        InputConfiguration inputConfiguration = JsonStreaming.objectMapper()
+                .readValue((String) request.get("inputConfiguration"), InputConfiguration.class);
+        AnalyzerRun.Settings settings = AnalyzerRun.Settings.fromMap((Map<String, String>) request.get("settings"));
+        boolean lazyClassPath = Boolean.TRUE.equals(request.get("lazyClassPath"));
+        Map<String, Object> shardMap = (Map<String, Object>) request.get("shard");
+        AnalyzerRun.Shard shard = new AnalyzerRun.Shard(Set.copyOf((List<String>) shardMap.get("packages")),
+                List.copyOf((List<String>) shardMap.get("load")), new File((String) shardMap.get("output")),
+                Set.copyOf((List<String>) shardMap.get("later")));
+        List<String> classesDirectories = (List<String>) request.getOrDefault("classesDirectories", List.of());
+
+        Phases phases = new Phases("shard", log);
+        try {
+            analyze(inputConfiguration, settings, lazyClassPath, shard, classesDirectories, log, phases);
+        } finally {
+            for (Phases.Measurement m : phases.measurements()) {
+                log.info("Phase " + m.name() + ": " + m.wallNanos() / 1_000_000 + " ms");
+            }
+        }
+    }
+
+    /*
+    Only the sources of the shard's packages are parsed. The types of the packages of earlier shards are read from
+    the class files in the classes directories, and their analysis is loaded from the shard's load directories,
+    as that of an analyzed package. Without classes directories, all sources are parsed.
+     */
+    static void analyze(InputConfiguration inputConfiguration, AnalyzerRun.Settings settings, boolean lazyClassPath,
+                        AnalyzerRun.Shard shard, List<String> classesDirectories, Log log, Phases phases)
+            throws IOException, InterruptedException, AnalyzerRun.AnalysisFailedException {
+        InputConfiguration restricted = classesDirectories.isEmpty() ? inputConfiguration
+                : restrict(inputConfiguration, shard.packages(), classesDirectories, log);
+        SourceParser sourceParser = new SourceParser(log, phases, lazyClassPath);
+        JavaInspector javaInspector = sourceParser.initialize(restricted);
+        ParseResult parseResult = sourceParser.parse(javaInspector);
+        new AnalyzerRun(settings, log, phases).withShard(shard).withSourceParser(sourceParser)
+                .run(new CommonMojo.ParseSourcesResult(parseResult, javaInspector, restricted));
+    }
+
+    /*
+    The source sets accept the shard's packages only; the classes directories come first on the class path, and
+    are dependencies of every source set. As in LazyClassPath, the source sets are rebuilt so that they all refer
+    to the same instances.
+     */
+    static InputConfiguration restrict(InputConfiguration inputConfiguration, Set<String> packages,
+                                       List<String> classesDirectories, Log log) {
+        List<SourceSet> classes = new ArrayList<>();
+        for (String directory : classesDirectories) {
+            File file = new File(directory);
+            if (!file.isDirectory()) {
+                log.warn("Classes directory " + directory + " does not exist; the types of earlier shards that are"
+                         + " only there cannot be resolved");
+                continue;
+            }
+            classes.add(new SourceSetImpl("classes:" + file.getAbsolutePath(), null, file.toURI(), null,
+                    false, true, true, false, false, null, Set.of()));
+        }
+        InputConfiguration.Builder builder = new InputConfigurationImpl.Builder();
+        if (inputConfiguration.alternativeJREDirectory() != null) {
+            builder.setAlternativeJREDirectory(inputConfiguration.alternativeJREDirectory().toString());
+        }
+        if (inputConfiguration.workingDirectory() != null) {
+            builder.setWorkingDirectory(inputConfiguration.workingDirectory().toString());
+        }
+        Map<String, SourceSet> rebuilt = new HashMap<>();
+        for (SourceSet set : inputConfiguration.sourceSets()) {
+            builder.addSourceSets(restrict(set, packages, classes, rebuilt));
+        }
+        builder.addClassPathParts(classes.toArray(SourceSet[]::new));
+        builder.addClassPathParts(inputConfiguration.classPathParts().toArray(SourceSet[]::new));
+        return builder.build();
+    }
+
+    private static SourceSet restrict(SourceSet set, Set<String> packages, List<SourceSet> classes,
+                                      Map<String, SourceSet> rebuilt) {
+        if (set.externalLibrary()) return set;
+        SourceSet done = rebuilt.get(set.name());
+        if (done != null) return done;
+        Set<SourceSet> dependencies = new HashSet<>(classes);
+        for (SourceSet dependency : set.dependencies()) {
+            dependencies.add(restrict(dependency, packages, classes, rebuilt));
+        }
+        SourceSet result = new SourceSetImpl(set.name(), set.sourceDirectories(), set.uri(), set.sourceEncoding(),
+                set.test(), set.library(), set.externalLibrary(), set.partOfJdk(), set.runtimeOnly(),
+                Set.copyOf(packages), Set.copyOf(dependencies));
+        rebuilt.put(set.name(), result);
+        return result;
+    }
+}
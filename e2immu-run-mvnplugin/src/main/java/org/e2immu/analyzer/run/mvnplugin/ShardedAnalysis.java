@@ -0,0 +1,240 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.e2immu.analyzer.run.config.util.JsonStreaming;
+import org.e2immu.language.inspection.api.resource.InputConfiguration;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/*
+Analyzes the sources in shards, one forked JVM per shard, each with its own heap.
+
+The shards are planned without parsing: the package dependency graph is derived from the qualified names in the
+sources, as in LazyClassPath. Packages that depend on each other, directly or through a cycle, end up in the same
+shard; the strongly connected components are taken in dependency order, and cut into shards of about the same
+number of source files. A shard therefore only depends on itself and on earlier shards.
+
+The shards run one after the other. Each worker only parses the sources of its own packages; the types of earlier
+shards come from the class files of the project, and their results from <directory>/analysis/<package>, where
+each worker writes the results of its packages with the codec of WriteAnalysis. They are loaded like analyzed
+packages. Whether a package then gets the same results as in a single JVM depends on the codec carrying all that
+the analysis of a later package reads; TestShardedAnalysis compares both on a small fixture.
+
+The qualified names miss dependencies that are never spelled out: a call on the return type of a method of another
+package, an inherited member type, var. A worker therefore fails when its analysis has loaded a type of a package
+of a later shard, rather than analyze it without the results a single JVM would have had.
+ */
+public class ShardedAnalysis {
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+    private static final String ANALYSIS = "analysis";
+
+    private final Log log;
+    private final File directory;
+    private final List<String> classPath;
+    private final String jvmArgs;
+
+    public ShardedAnalysis(Log log, File directory, List<String> classPath, String jvmArgs) {
+        this.log = log;
+        this.directory = directory;
+        this.classPath = classPath;
+        this.jvmArgs = jvmArgs;
+    }
+
+    private record SourceFile(String packageName, Set<String> names) {
+    }
+
+    /*
+    Returns the packages of each shard, in the order in which the shards must run.
+     */
+    public static List<Set<String>> plan(InputConfiguration inputConfiguration, int shards) throws IOException {
+        List<SourceFile> sourceFiles;
+        try {
+            sourceFiles = LazyClassPath.sourceFiles(inputConfiguration).parallelStream()
+                    .map(ShardedAnalysis::scan).toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Map<String, Integer> weights = new TreeMap<>();
+        Map<String, Set<String>> names = new HashMap<>();
+        for (SourceFile sourceFile : sourceFiles) {
+            weights.merge(sourceFile.packageName(), 1, Integer::sum);
+            names.computeIfAbsent(sourceFile.packageName(), p -> new HashSet<>()).addAll(sourceFile.names());
+        }
+        List<String> packages = List.copyOf(weights.keySet());
+        Map<String, Integer> ids = new HashMap<>();
+        for (String packageName : packages) ids.put(packageName, ids.size());
+        IntGraph.Builder builder = new IntGraph.Builder(packages.size());
+        for (int from = 0; from < packages.size(); ++from) {
+            for (String name : names.get(packages.get(from))) {
+                Integer to = ids.get(name);
+                if (to != null && to != from) builder.add(from, to);
+            }
+        }
+        List<int[]> components = stronglyConnectedComponents(builder.build());
+
+        int target = Math.max(1, (sourceFiles.size() + shards - 1) / Math.max(1, shards));
+        List<Set<String>> plan = new ArrayList<>();
+        Set<String> current = new TreeSet<>();
+        int weight = 0;
+        for (int[] component : components) {
+            for (int id : component) {
+                current.add(packages.get(id));
+                weight += weights.get(packages.get(id));
+            }
+            if (weight >= target) {
+                plan.add(current);
+                current = new TreeSet<>();
+                weight = 0;
+            }
+        }
+        if (!current.isEmpty()) plan.add(current);
+        return plan;
+    }
+
+    // identifiers are ASCII in practice; reading as ISO-8859-1 never fails on other encodings
+    private static SourceFile scan(Path path) {
+        String source;
+        try {
+            source = Files.readString(path, StandardCharsets.ISO_8859_1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Matcher m = PACKAGE.matcher(source);
+        return new SourceFile(m.find() ? m.group(1) : "", LazyClassPath.qualifiedNamePrefixes(source));
+    }
+
+    /*
+    Tarjan's algorithm, without recursion. A component is completed after all components it can reach,
+    so the components come in dependency order.
+     */
+    static List<int[]> stronglyConnectedComponents(IntGraph<Integer> graph) {
+        int n = graph.size();
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+        int[] stack = new int[n];
+        int stackSize = 0;
+        int[] callStack = new int[n];
+        int[] edgeCursor = new int[n];
+        int counter = 0;
+        List<int[]> components = new ArrayList<>();
+        for (int root = 0; root < n; ++root) {
+            if (index[root] >= 0) continue;
+            int depth = 0;
+            callStack[depth++] = root;
+            index[root] = lowLink[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            edgeCursor[root] = graph.start(root);
+            while (depth > 0) {
+                int v = callStack[depth - 1];
+                if (edgeCursor[v] < graph.end(v)) {
+                    int w = graph.target(edgeCursor[v]++);
+                    if (index[w] < 0) {
+                        index[w] = lowLink[w] = counter++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        edgeCursor[w] = graph.start(w);
+                        callStack[depth++] = w;
+                    } else if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                    }
+                } else {
+                    --depth;
+                    if (depth > 0) {
+                        int parent = callStack[depth - 1];
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                    }
+                    if (lowLink[v] == index[v]) {
+                        int start = stackSize;
+                        do {
+                            onStack[stack[--start]] = false;
+                        } while (stack[start] != v);
+                        components.add(Arrays.copyOfRange(stack, start, stackSize));
+                        stackSize = start;
+                    }
+                }
+            }
+        }
+        return components;
+    }
+
+    /*
+    The request is that of the analyzer daemon; each worker gets it, with the description of its shard.
+     */
+    public void run(Map<String, Object> request, List<Set<String>> plan)
+            throws IOException, InterruptedException, AnalyzerRun.AnalysisFailedException {
+        File analysis = new File(directory, ANALYSIS);
+        deleteRecursively(analysis.toPath());
+        Files.createDirectories(analysis.toPath());
+        List<String> done = new ArrayList<>();
+        for (int i = 0; i < plan.size(); ++i) {
+            Set<String> packages = plan.get(i);
+            String shard = "shard " + (i + 1) + " of " + plan.size();
+            log.info("Analyzing " + shard + ": " + packages.size() + " package(s)");
+            List<String> load = done.stream().map(p -> new File(analysis, IncrementalAnalysis.directoryName(p)))
+                    .filter(File::isDirectory).map(File::getAbsolutePath).toList();
+            List<String> later = plan.subList(i + 1, plan.size()).stream().flatMap(Set::stream).toList();
+            Map<String, Object> shardRequest = new HashMap<>(request);
+            shardRequest.put("shard", Map.of("packages", List.copyOf(packages), "load", load,
+                    "output", analysis.getAbsolutePath(), "later", later));
+            File requestFile = new File(directory, "shard-" + (i + 1) + ".json");
+            JsonStreaming.objectMapper().writeValue(requestFile, shardRequest);
+            runWorker(shard, requestFile, new File(directory, "shard-" + (i + 1) + ".log"));
+            done.addAll(packages);
+        }
+        log.info("Sharded analysis done; results in " + analysis);
+    }
+
+    private void runWorker(String shard, File requestFile, File logFile)
+            throws IOException, InterruptedException, AnalyzerRun.AnalysisFailedException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (jvmArgs != null && !jvmArgs.isBlank()) command.addAll(List.of(jvmArgs.trim().split("\\s+")));
+        command.add("-cp");
+        command.add(String.join(File.pathSeparator, classPath));
+        command.add(ShardWorker.class.getName());
+        command.add(requestFile.getAbsolutePath());
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.to(logFile))
+                .redirectInput(ProcessBuilder.Redirect.from(new File(System.getProperty("os.name")
+                        .startsWith("Windows") ? "NUL" : "/dev/null")))
+                .start();
+        String status;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            status = DaemonClient.relay(in, log);
+        } finally {
+            if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                process.waitFor();
+            }
+        }
+        if (status == null) {
+            throw new IOException("Worker for " + shard + " stopped with exit code " + process.exitValue()
+                                  + "; see " + logFile);
+        }
+        if (status.startsWith(AnalyzerDaemon.FAILED)) {
+            throw new AnalyzerRun.AnalysisFailedException(shard + ": "
+                                                          + status.substring(AnalyzerDaemon.FAILED.length()).trim());
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (Stream<Path> stream = Files.walk(path)) {
+            for (Path p : stream.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+}
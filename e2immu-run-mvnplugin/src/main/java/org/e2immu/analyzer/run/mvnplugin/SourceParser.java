@@ -0,0 +1,58 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.e2immu.language.inspection.api.integration.JavaInspector;
+import org.e2immu.language.inspection.api.parser.ParseResult;
+import org.e2immu.language.inspection.api.resource.InputConfiguration;
+import org.e2immu.language.inspection.integration.JavaInspectorImpl;
+import org.e2immu.language.inspection.integration.ToolChain;
+
+import java.io.IOException;
+
+/*
+Initializing a JavaInspector and parsing the sources, without any reference to Maven's project model,
+so that the analyzer daemon can do the same outside of Maven.
+ */
+public class SourceParser {
+    private final Log log;
+    private final Phases phases;
+    private final boolean lazyClassPath;
+
+    public SourceParser(Log log, Phases phases, boolean lazyClassPath) {
+        this.log = log;
+        this.phases = phases;
+        this.lazyClassPath = lazyClassPath;
+    }
+
+    public JavaInspector initialize(InputConfiguration inputConfiguration) throws IOException {
+        JavaInspector javaInspector = new JavaInspectorImpl();
+
+        InputConfiguration reachable;
+        if (lazyClassPath) {
+            try (Phases.Phase ignored = phases.start("prune class path")) {
+                reachable = new LazyClassPath(log).prune(inputConfiguration);
+            }
+        } else {
+            reachable = inputConfiguration;
+        }
+        InputConfiguration withJavaModules = reachable.withE2ImmuSupportFromClasspath().withDefaultModules();
+        log.info("Working directory: " + withJavaModules.workingDirectory());
+        try (Phases.Phase ignored = phases.start("initialize inspector")) {
+            javaInspector.initialize(withJavaModules);
+        }
+
+        String jdkSpec = ToolChain.extractLibraryName(javaInspector.compiledTypesManager().typesLoaded(),
+                false);
+        String mapped = ToolChain.mapJreShortNameToAnalyzedPackageShortName(jdkSpec);
+        log.info("Resolved analyzed package files for " + jdkSpec + " -> " + mapped);
+        return javaInspector;
+    }
+
+    public ParseResult parse(JavaInspector javaInspector) throws IOException {
+        JavaInspector.ParseOptions parseOptions = new JavaInspectorImpl.ParseOptionsBuilder()
+                .setFailFast(true).setDetailedSources(true).build();
+        try (Phases.Phase ignored = phases.start("parse")) {
+            return javaInspector.parse(parseOptions).parseResult();
+        }
+    }
+}
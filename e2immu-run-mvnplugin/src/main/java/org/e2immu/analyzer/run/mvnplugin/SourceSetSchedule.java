@@ -0,0 +1,130 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.e2immu.language.cst.api.element.SourceSet;
+import org.e2immu.language.inspection.api.resource.InputConfiguration;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+The source sets of the input configuration (not the class path), with the dependencies among them, as a plan
+for running work per source set: a source set's task starts as soon as the tasks of the source sets it depends on
+are done, so that independent source sets (main and generated sources, several kinds of tests) run concurrently.
+
+Layers group the source sets by the length of their longest dependency chain; they describe the plan, the tasks
+themselves do not wait for a whole layer.
+ */
+public class SourceSetSchedule {
+
+    @FunctionalInterface
+    public interface Task<T> {
+        T run(String sourceSet) throws Exception;
+    }
+
+    // in the order of the input configuration, which is a linearization
+    private final List<String> sourceSets;
+    private final Map<String, Set<String>> dependencies;
+
+    private SourceSetSchedule(List<String> sourceSets, Map<String, Set<String>> dependencies) {
+        this.sourceSets = sourceSets;
+        this.dependencies = dependencies;
+    }
+
+    public static SourceSetSchedule of(InputConfiguration inputConfiguration) {
+        List<String> names = inputConfiguration.sourceSets().stream()
+                .filter(set -> !set.externalLibrary()).map(SourceSet::name).distinct().toList();
+        Set<String> known = Set.copyOf(names);
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        for (SourceSet set : inputConfiguration.sourceSets()) {
+            if (set.externalLibrary()) continue;
+            Set<String> on = new TreeSet<>();
+            if (set.dependencies() != null) {
+                for (SourceSet dependency : set.dependencies()) {
+                    if (known.contains(dependency.name()) && !dependency.name().equals(set.name())) {
+                        on.add(dependency.name());
+                    }
+                }
+            }
+            dependencies.merge(set.name(), on, (s1, s2) -> {
+                Set<String> union = new TreeSet<>(s1);
+                union.addAll(s2);
+                return union;
+            });
+        }
+        return new SourceSetSchedule(names, dependencies);
+    }
+
+    public List<String> sourceSets() {
+        return sourceSets;
+    }
+
+    public List<List<String>> layers() {
+        Map<String, Integer> level = new HashMap<>();
+        List<List<String>> layers = new ArrayList<>();
+        for (String name : sourceSets) {
+            int l = level(name, level, new HashSet<>());
+            while (layers.size() <= l) layers.add(new ArrayList<>());
+            layers.get(l).add(name);
+        }
+        return layers;
+    }
+
+    private int level(String name, Map<String, Integer> level, Set<String> inProgress) {
+        Integer known = level.get(name);
+        if (known != null) return known;
+        if (!inProgress.add(name)) return 0;
+        int l = 0;
+        for (String dependency : dependencies.getOrDefault(name, Set.of())) {
+            l = Math.max(l, 1 + level(dependency, level, inProgress));
+        }
+        level.put(name, l);
+        return l;
+    }
+
+    /*
+    Runs the task of each source set on the executor, after those of its dependencies. When a task fails,
+    the tasks that depend on it do not run; the first failure, in the order of the source sets, is rethrown.
+    Results come in the order of the source sets.
+     */
+    public <T> List<T> execute(ExecutorService executor, Task<T> task) throws Exception {
+        Map<String, CompletableFuture<T>> futures = new HashMap<>();
+        for (String name : linearOrder()) {
+            CompletableFuture<?>[] before = dependencies.getOrDefault(name, Set.of()).stream()
+                    .map(futures::get).filter(Objects::nonNull).toArray(CompletableFuture[]::new);
+            futures.put(name, CompletableFuture.allOf(before).thenApplyAsync(v -> {
+                try {
+                    return task.run(name);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        List<T> results = new ArrayList<>(sourceSets.size());
+        Exception first = null;
+        for (String name : sourceSets) {
+            try {
+                results.add(futures.get(name).join());
+            } catch (CompletionException | CancellationException e) {
+                if (first == null) first = e.getCause() instanceof Exception cause ? cause : e;
+            }
+        }
+        if (first != null) throw first;
+        return results;
+    }
+
+    // dependencies before dependents, even when the input configuration's order is not
+    private List<String> linearOrder() {
+        List<String> order = new ArrayList<>();
+        for (List<String> layer : layers()) order.addAll(layer);
+        return order;
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(" -> ");
+        for (List<String> layer : layers()) joiner.add(layer.toString());
+        return joiner.toString();
+    }
+}
@@ -5,21 +5,11 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.DependencyResolutionException;
-import org.e2immu.language.cst.api.element.SourceSet;
-import org.e2immu.language.cst.api.expression.ConstructorCall;
-import org.e2immu.language.cst.api.expression.MethodCall;
-import org.e2immu.language.cst.api.info.MethodInfo;
-import org.e2immu.language.cst.api.info.TypeInfo;
-import org.e2immu.language.inspection.api.parser.ParseResult;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.function.Predicate;
+
+import static org.e2immu.analyzer.run.mvnplugin.MethodCallFrequencies.Selection.*;
 
 @Mojo(name = StatisticsMojo.STATISTICS_GOAL, defaultPhase = LifecyclePhase.COMPILE, threadSafe = true)
 public class StatisticsMojo extends CommonMojo {
@@ -43,6 +33,20 @@ public class StatisticsMojo extends CommonMojo {
     @Parameter(property = "methodCallFrequenciesTestBySourceSet", defaultValue = "${project.build.directory}/methodCallFrequenciesTestBySourceSet.txt")
     private File methodCallFrequenciesTestBySourceSet;
 
+    /*
+    text: "<count> <key>" per line (default)
+    gzip: the text format, gzip'ed
+    binary: counts and key offsets in fixed-size tables, followed by the keys; see HistogramWriter
+    The file names are not changed by the format.
+     */
+    @Parameter(property = "histogramFormat", defaultValue = "text")
+    private String histogramFormat;
+
+    // only write the topN most frequent entries of each histogram; 0 means all entries.
+    // aggregate-statistics refuses truncated histograms
+    @Parameter(property = "topN", defaultValue = "0")
+    private int topN;
+
     @Override
     public void execute() throws MojoExecutionException {
         try {
@@ -51,60 +55,26 @@ public class StatisticsMojo extends CommonMojo {
                 getLog().info("Created directories for " + methodCallFrequencies.getAbsolutePath());
             }
             ParseSourcesResult psr = parseSources();
-            methodCallFrequencies(psr.parseResult(), methodCallFrequencies, methodCallFrequenciesBySourceSet,
-                    t -> true);
-            methodCallFrequencies(psr.parseResult(), methodCallFrequenciesMain, methodCallFrequenciesMainBySourceSet,
-                    t -> !t.compilationUnit().sourceSet().test());
-            methodCallFrequencies(psr.parseResult(), methodCallFrequenciesTest, methodCallFrequenciesTest,
-                    t -> t.compilationUnit().sourceSet().test());
+            MethodCallFrequencies frequencies;
+            try (Phases.Phase ignored = phases().start("method call frequencies")) {
+                frequencies = MethodCallFrequencies.compute(psr.parseResult());
+            }
+            try (Phases.Phase ignored = phases().start("write histograms")) {
+                writeHistogram(frequencies.methodHistogram(ALL), methodCallFrequencies);
+                writeHistogram(frequencies.sourceSetHistogram(ALL), methodCallFrequenciesBySourceSet);
+                writeHistogram(frequencies.methodHistogram(MAIN), methodCallFrequenciesMain);
+                writeHistogram(frequencies.sourceSetHistogram(MAIN), methodCallFrequenciesMainBySourceSet);
+                writeHistogram(frequencies.methodHistogram(TEST), methodCallFrequenciesTest);
+                writeHistogram(frequencies.sourceSetHistogram(TEST), methodCallFrequenciesTestBySourceSet);
+            }
         } catch (RuntimeException | IOException | DependencyResolutionException e) {
             throw new MojoExecutionException("Failed to write input configuration", e);
+        } finally {
+            writePhaseReport();
         }
     }
 
-    private void methodCallFrequencies(ParseResult parseResult, File freqFile, File freqFileBySourceSet,
-                                       Predicate<TypeInfo> filter) throws IOException {
-        Map<String, Integer> methodHistogram = new HashMap<>();
-        Map<String, Integer> sourceSetHistogram = new HashMap<>();
-        parseResult.primaryTypes().stream()
-                .filter(filter)
-                .flatMap(TypeInfo::recursiveSubTypeStream)
-                .flatMap(TypeInfo::constructorAndMethodStream)
-                .forEach(mi -> {
-                    mi.methodBody().visit(e -> {
-                        MethodInfo methodInfo = null;
-                        if (e instanceof MethodCall mc &&
-                            !parseResult.primaryTypes().contains(mc.methodInfo().typeInfo().primaryType())) {
-                            methodInfo = mc.methodInfo();
-                        } else if (e instanceof ConstructorCall cc && cc.constructor() != null
-                                   && !parseResult.primaryTypes().contains(cc.constructor().typeInfo().primaryType())) {
-                            methodInfo = cc.constructor();
-                        }
-                        if (methodInfo != null) {
-                            methodHistogram.merge(methodInfo.fullyQualifiedName(), 1, Integer::sum);
-                            SourceSet sourceSet = methodInfo.typeInfo().compilationUnit().sourceSet();
-                            if (sourceSet != null) {
-                                sourceSetHistogram.merge(sourceSet.name(), 1, Integer::sum);
-                            }
-                        }
-                        return true;
-                    });
-                });
-        writeHistogram(methodHistogram, freqFile);
-        writeHistogram(sourceSetHistogram, freqFileBySourceSet);
-    }
-
-    private void writeHistogram(Map<String, Integer> methodHistogram, File freqFile) throws IOException {
-        try (OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(freqFile), StandardCharsets.UTF_8)) {
-            methodHistogram.entrySet().stream()
-                    .sorted((e1, e2) -> e2.getValue() - e1.getValue())
-                    .forEach(e -> {
-                        try {
-                            osw.append(String.valueOf(e.getValue())).append(" ").append(e.getKey()).append("\n");
-                        } catch (IOException ex) {
-                            throw new RuntimeException(ex);
-                        }
-                    });
-        }
+    private void writeHistogram(Histogram histogram, File freqFile) throws IOException {
+        new HistogramWriter(HistogramWriter.Format.from(histogramFormat), topN).write(histogram, freqFile);
     }
 }
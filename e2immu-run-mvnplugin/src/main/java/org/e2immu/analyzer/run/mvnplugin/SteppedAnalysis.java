@@ -0,0 +1,202 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.e2immu.analyzer.modification.common.AnalyzerException;
+import org.e2immu.analyzer.run.config.util.JsonStreaming;
+import org.e2immu.language.cst.api.analysis.Property;
+import org.e2immu.language.cst.api.analysis.Value;
+import org.e2immu.language.cst.api.info.Info;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/*
+Runs the modification analyzer one iteration at a time, rather than maxIterations at once, and compares the
+analysis of each element before and after every iteration. An iteration that changes no property ends the
+analysis early. Each iteration is a new call of the analyzer with maxIterations 1, so the state that the analyzer
+keeps between its own iterations is lost: the results can differ from those of one call with maxIterations.
+
+In work-list mode, an iteration after the first only visits the elements that changed in the previous iteration,
+and their neighbours in the dependency graph, in analysis order. Both directions of an edge count as a neighbour,
+so the work-list never misses an element whose inputs changed.
+
+The report lists, per iteration, the number of elements visited, the properties changed, the types that still
+changed (that have not converged), and the time taken; and the types that converged last, with the most changes.
+
+In the default mode, the analyzer is called once with maxIterations, and its iterations are internal: its Output
+only carries the exceptions, it has no per-iteration data. runOnce then measures the call as a whole, as one entry
+in the report, without changing how the analyzer runs; whether the analyzer converged is not known.
+ */
+public class SteppedAnalysis {
+    private static final int SLOWEST_TYPES = 50;
+    private static final Object[] EMPTY = {};
+
+    public record Iteration(int iteration, int visited, int changedElements, int changedProperties,
+                            int unresolvedTypes, long millis) {
+    }
+
+    public record TypeConvergence(String type, int lastChangedIteration, int changedProperties) {
+    }
+
+    // converged is null when not known, in the default mode; iterations then has one entry, the whole call
+    public record Report(String mode, Boolean converged, List<Iteration> iterations,
+                         List<TypeConvergence> slowestTypes) {
+    }
+
+    @FunctionalInterface
+    public interface Step {
+        // one iteration of the analyzer over the given elements
+        List<AnalyzerException> analyze(List<Info> infos) throws InterruptedException;
+    }
+
+    private final Log log;
+    private final int maxIterations;
+    private final boolean workList;
+
+    public SteppedAnalysis(Log log, int maxIterations, boolean workList) {
+        this.log = log;
+        this.maxIterations = maxIterations;
+        this.workList = workList;
+    }
+
+    public Report run(IntGraph<Info> dependencyGraph, List<Info> toAnalyze, Step step,
+                      List<AnalyzerException> exceptions) throws InterruptedException {
+        IntGraph<Info> reversed = workList ? dependencyGraph.reversed() : null;
+        Map<String, int[]> perType = new HashMap<>(); // last changed iteration, changed properties
+        List<Iteration> iterations = new ArrayList<>();
+        List<Info> visit = toAnalyze;
+        boolean converged = false;
+        for (int iteration = 1; iteration <= maxIterations && !visit.isEmpty(); ++iteration) {
+            Set<Info> changed = new HashSet<>();
+            Iteration measured = measure(iteration, visit, step, exceptions, perType, changed);
+            iterations.add(measured);
+            log.info("Iteration " + iteration + ": visited " + visit.size() + ", changed "
+                     + measured.changedProperties() + " properties of " + changed.size() + " elements in "
+                     + measured.unresolvedTypes() + " types, " + measured.millis() + " ms");
+            if (changed.isEmpty()) {
+                converged = true;
+                break;
+            }
+            if (workList) {
+                BitSet next = new BitSet(dependencyGraph.size());
+                for (Info info : changed) {
+                    int id = dependencyGraph.id(info);
+                    if (id < 0) continue;
+                    next.set(id);
+                    for (int k = dependencyGraph.start(id); k < dependencyGraph.end(id); ++k) {
+                        next.set(dependencyGraph.target(k));
+                    }
+                    for (int k = reversed.start(id); k < reversed.end(id); ++k) next.set(reversed.target(k));
+                }
+                visit = toAnalyze.stream().filter(info -> {
+                    int id = dependencyGraph.id(info);
+                    return id < 0 ? changed.contains(info) : next.get(id);
+                }).toList();
+            }
+        }
+        if (!converged) {
+            log.warn("Modification analysis did not converge in " + maxIterations + " iterations");
+        }
+        return new Report(workList ? "work-list" : "stepped", converged, List.copyOf(iterations),
+                slowest(perType));
+    }
+
+    /*
+    One call of the analyzer with maxIterations, as in the default mode. The report has one entry, the changes
+    made by the whole call; the types are ordered by their number of changed properties.
+     */
+    public Report runOnce(List<Info> toAnalyze, Step step, List<AnalyzerException> exceptions)
+            throws InterruptedException {
+        Map<String, int[]> perType = new HashMap<>();
+        Iteration measured = measure(1, toAnalyze, step, exceptions, perType, new HashSet<>());
+        log.info("Modification analyzer, up to " + maxIterations + " iterations: changed "
+                 + measured.changedProperties() + " properties of " + measured.changedElements() + " elements in "
+                 + measured.unresolvedTypes() + " types, " + measured.millis() + " ms");
+        return new Report("single call", null, List.of(measured), slowest(perType));
+    }
+
+    private static Iteration measure(int iteration, List<Info> visit, Step step, List<AnalyzerException> exceptions,
+                                     Map<String, int[]> perType, Set<Info> changed) throws InterruptedException {
+        Object[][] before = new Object[visit.size()][];
+        for (int i = 0; i < before.length; ++i) before[i] = snapshot(visit.get(i));
+        long start = System.nanoTime();
+        exceptions.addAll(step.analyze(visit));
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        Set<String> unresolvedTypes = new HashSet<>();
+        int changedProperties = 0;
+        for (int i = 0; i < before.length; ++i) {
+            Info info = visit.get(i);
+            int changes = changes(before[i], info);
+            before[i] = null;
+            if (changes > 0) {
+                changed.add(info);
+                changedProperties += changes;
+                String type = info.typeInfo() == null ? info.fullyQualifiedName()
+                        : info.typeInfo().fullyQualifiedName();
+                unresolvedTypes.add(type);
+                int[] counts = perType.computeIfAbsent(type, t -> new int[2]);
+                counts[0] = iteration;
+                counts[1] += changes;
+            }
+        }
+        return new Iteration(iteration, visit.size(), changed.size(), changedProperties, unresolvedTypes.size(),
+                millis);
+    }
+
+    private static List<TypeConvergence> slowest(Map<String, int[]> perType) {
+        return perType.entrySet().stream()
+                .map(e -> new TypeConvergence(e.getKey(), e.getValue()[0], e.getValue()[1]))
+                .sorted(Comparator.comparingInt(TypeConvergence::lastChangedIteration).reversed()
+                        .thenComparing(Comparator.comparingInt(TypeConvergence::changedProperties).reversed())
+                        .thenComparing(TypeConvergence::type))
+                .limit(SLOWEST_TYPES)
+                .toList();
+    }
+
+    /*
+    The properties and values of an element, alternating in one array: an element has few properties, so a linear
+    search is cheaper than a map per element per iteration. The values are immutable, and not copied.
+     */
+    private static Object[] snapshot(Info info) {
+        if (info.analysis() == null) return EMPTY;
+        List<Object> list = new ArrayList<>();
+        info.analysis().propertyValueStream().forEach(pv -> {
+            list.add(pv.property());
+            list.add(pv.value());
+        });
+        return list.toArray();
+    }
+
+    private static int changes(Object[] before, Info info) {
+        if (info.analysis() == null) return 0;
+        int[] changes = new int[1];
+        info.analysis().propertyValueStream().forEach(pv -> {
+            if (!Objects.equals(valueOf(before, pv.property()), pv.value())) ++changes[0];
+        });
+        return changes[0];
+    }
+
+    private static Value valueOf(Object[] snapshot, Property property) {
+        for (int i = 0; i < snapshot.length; i += 2) {
+            if (snapshot[i].equals(property)) return (Value) snapshot[i + 1];
+        }
+        return null;
+    }
+
+    public static void write(Report report, File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        JsonStreaming.objectMapper().writerWithDefaultPrettyPrinter().writeValue(file, report);
+    }
+
+    public static String summary(Report report) {
+        return report.slowestTypes().stream().limit(10)
+                .map(t -> t.type() + " (" + t.lastChangedIteration() + ", " + t.changedProperties() + ")")
+                .collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,115 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.e2immu.analyzer.aapi.parser.Composer;
+import org.e2immu.language.cst.api.element.Element;
+import org.e2immu.language.cst.api.element.SourceSet;
+import org.e2immu.language.cst.api.info.Info;
+import org.e2immu.language.cst.api.info.TypeInfo;
+import org.e2immu.language.cst.api.output.Qualification;
+import org.e2immu.language.inspection.api.integration.JavaInspector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/*
+Composes and writes the annotated APIs one source set at a time, rather than all at once.
+
+Each source set of the class path becomes one output package (see packagePrefixGenerator), so it gets its own
+Composer; the composed types and the dollar map of a batch are released once the batch has been written.
+Writing happens on writeThreads threads, while the next batch is being composed. At most writeThreads composed
+batches are queued or being written: the composing thread waits for a writer to finish before it hands over
+another one. At most writeThreads + 1 batches are therefore live, so peak memory depends on the writeThreads + 1
+largest source sets, not on the whole class path.
+
+Composing and writing share the JavaInspector and its Runtime across threads, and each batch translates with the
+dollar map of its own Composer. Nothing in the composer guarantees that this gives the output of a composition in
+one go; the verifyStreaming parameter of the write-annotated-apis goal compares both.
+ */
+public class StreamingComposition {
+    private final Log log;
+    private final JavaInspector javaInspector;
+    private final Function<SourceSet, String> packagePrefixGenerator;
+    private final Predicate<Info> accept;
+    private final Function<Map<Element, Element>, Qualification.Decorator> decoratorFactory;
+    private final int writeThreads;
+
+    public StreamingComposition(Log log,
+                                JavaInspector javaInspector,
+                                Function<SourceSet, String> packagePrefixGenerator,
+                                Predicate<Info> accept,
+                                Function<Map<Element, Element>, Qualification.Decorator> decoratorFactory,
+                                int writeThreads) {
+        this.log = log;
+        this.javaInspector = javaInspector;
+        this.packagePrefixGenerator = packagePrefixGenerator;
+        this.accept = accept;
+        this.decoratorFactory = decoratorFactory;
+        this.writeThreads = Math.max(1, writeThreads);
+    }
+
+    // batches in the order of their source set's name, so that the log does not depend on hashing
+    static Map<String, List<TypeInfo>> batches(Collection<TypeInfo> primaryTypes) {
+        Map<String, List<TypeInfo>> batches = new TreeMap<>();
+        for (TypeInfo typeInfo : primaryTypes) {
+            SourceSet sourceSet = typeInfo.compilationUnit() == null ? null : typeInfo.compilationUnit().sourceSet();
+            String name = sourceSet == null || sourceSet.name() == null ? "" : sourceSet.name();
+            batches.computeIfAbsent(name, n -> new ArrayList<>()).add(typeInfo);
+        }
+        return batches;
+    }
+
+    /*
+    Returns the number of API types written. The first write failure, in batch order, is rethrown.
+     */
+    public int composeAndWrite(Collection<TypeInfo> primaryTypes, File outputDirectory)
+            throws IOException, InterruptedException {
+        Map<String, List<TypeInfo>> batches = batches(primaryTypes);
+        log.info("Composing " + primaryTypes.size() + " primary types in " + batches.size() + " batches, writing on "
+                 + writeThreads + " thread(s)");
+        List<Future<?>> futures = new ArrayList<>(batches.size());
+        int written = 0;
+        Semaphore inFlight = new Semaphore(writeThreads);
+        try (ExecutorService executor = Executors.newFixedThreadPool(writeThreads)) {
+            Iterator<Map.Entry<String, List<TypeInfo>>> iterator = batches.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, List<TypeInfo>> entry = iterator.next();
+                iterator.remove();
+                Composer composer = new Composer(javaInspector, javaInspector.importComputer(Integer.MAX_VALUE),
+                        packagePrefixGenerator, accept);
+                Collection<TypeInfo> apiTypes = composer.compose(entry.getValue());
+                Qualification.Decorator decorator = decoratorFactory.apply(composer.translateFromDollarToReal());
+                written += apiTypes.size();
+                if (log.isDebugEnabled()) {
+                    log.debug("Composed " + apiTypes.size() + " API types for " + entry.getKey());
+                }
+                inFlight.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        composer.write(apiTypes, outputDirectory, decorator);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException uio) throw uio.getCause();
+                if (e.getCause() instanceof RuntimeException re) throw re;
+                if (e.getCause() instanceof Error error) throw error;
+                throw new IllegalStateException("Writing a batch failed", e.getCause());
+            }
+        }
+        return written;
+    }
+}
@@ -15,9 +15,12 @@ import org.e2immu.language.cst.api.info.MethodInfo;
 import org.e2immu.language.cst.api.info.TypeInfo;
 import org.e2immu.language.cst.api.output.Qualification;
 import org.e2immu.language.cst.api.runtime.Runtime;
+import org.e2immu.language.inspection.api.resource.InputConfiguration;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -33,6 +36,23 @@ public class WriteAnnotatedAPIsMojo extends CommonMojo {
     @Parameter(property = "packagePrefix", defaultValue = "")
     private String packagePrefix;
 
+    /*
+    compose and write one source set at a time, see StreamingComposition; writeThreads threads write,
+    while the next source set is being composed
+     */
+    @Parameter(property = "streamingComposition", defaultValue = "false")
+    private boolean streamingComposition;
+
+    @Parameter(property = "writeThreads", defaultValue = "2")
+    private int writeThreads;
+
+    /*
+    with streamingComposition, parse the sources a second time, compose and write them in one go, and fail when
+    the output differs from that of the streaming composition; doubles the work of the goal
+     */
+    @Parameter(property = "verifyStreaming", defaultValue = "false")
+    private boolean verifyStreaming;
+
     @Override
     public void execute() throws MojoExecutionException {
         try {
@@ -40,37 +60,110 @@ public class WriteAnnotatedAPIsMojo extends CommonMojo {
             if (outputDirectory.mkdirs()) {
                 getLog().info("Created " + outputDirectory.getAbsolutePath());
             }
-            ParseSourcesResult psr = parseSources();
-            Map<MethodInfo, Integer> methodCallFrequencies = methodCallFrequencies(psr.parseResult());
-            getLog().info("Have method call frequencies for " + methodCallFrequencies.size() + " methods");
-
-            Set<TypeInfo> acceptedTypes = computeAcceptedTypes(methodCallFrequencies.keySet());
-            Map<MethodInfo, Integer> overrideFrequencies = new HashMap<>();
-            methodCallFrequencies.forEach((mi, f) ->
-                    mi.overrides().forEach(o -> overrideFrequencies.putIfAbsent(o, f)));
-            ImportComputer importComputer = psr.javaInspector().importComputer(Integer.MAX_VALUE);
-            Composer composer = new Composer(psr.javaInspector(),
-                    importComputer,
+            InputConfiguration inputConfiguration = makeInputConfiguration();
+            // frequencies and loaded types are determined by the input configuration and the sources
+            OutputManifest manifest = outputManifest(outputDirectory, sourcesKey(inputConfiguration), packagePrefix,
+                    Boolean.toString(lazyClassPath()));
+            if (manifest != null && manifest.upToDate()) {
+                getLog().info("Annotated API files in " + outputDirectory + " are up to date");
+                return;
+            }
+            ParseSourcesResult psr = parseSources(inputConfiguration, false);
+            File directory = manifest == null ? outputDirectory : manifest.prepareStagingDirectory();
+            composeAndWrite(psr, streamingComposition, directory);
+            if (streamingComposition && verifyStreaming) {
+                try (Phases.Phase ignored = phases().start("verify streaming")) {
+                    verifyStreaming(inputConfiguration, directory);
+                }
+            }
+            if (manifest != null) manifest.commit();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while writing annotated APIs", e);
+        } catch (RuntimeException | IOException | DependencyResolutionException e) {
+            throw new MojoExecutionException("Failed to write input configuration", e);
+        } finally {
+            writePhaseReport();
+        }
+    }
+
+    private void composeAndWrite(ParseSourcesResult psr, boolean streaming, File directory)
+            throws IOException, InterruptedException {
+        MethodFrequencyTable frequencies;
+        try (Phases.Phase ignored = phases().start("method call frequencies")) {
+            frequencies = MethodFrequencyTable.of(MethodCallFrequencies.compute(psr.parseResult()));
+        }
+        getLog().info("Have method call frequencies for " + frequencies.calledMethods().size() + " methods");
+
+        Set<TypeInfo> acceptedTypes = computeAcceptedTypes(frequencies.calledMethods());
+        /*
+        The composer only writes accepted types, and accepted types include their enclosing types;
+        so in lazy mode, the primary types of the accepted types are all that it needs to consider.
+         */
+        Stream<TypeInfo> candidates = lazyClassPath() ? acceptedTypes.stream()
+                : psr.javaInspector().compiledTypesManager().typesLoaded().stream();
+        Set<TypeInfo> primaryTypes = candidates.map(TypeInfo::primaryType)
+                .collect(Collectors.toUnmodifiableSet());
+        getLog().info("Have " + primaryTypes.size() + " primary types " + (lazyClassPath() ? "accepted" : "loaded"));
+
+        if (streaming) {
+            StreamingComposition streamingComposition = new StreamingComposition(getLog(), psr.javaInspector(),
                     set -> packagePrefixGenerator(packagePrefix, set),
-                    w -> acceptedTypes.contains(w.typeInfo()));
-            Set<TypeInfo> primaryTypes = psr.javaInspector().compiledTypesManager()
-                    .typesLoaded().stream().map(TypeInfo::primaryType)
-                    .collect(Collectors.toUnmodifiableSet());
-            getLog().info("Have " + primaryTypes.size() + " primary types loaded");
+                    w -> acceptedTypes.contains(w.typeInfo()),
+                    dollarMap -> new DecoratorWithComments(getLog(), psr.javaInspector().runtime(),
+                            dollarMap, frequencies),
+                    writeThreads);
+            try (Phases.Phase ignored = phases().start("compose and write")) {
+                int written = streamingComposition.composeAndWrite(primaryTypes, directory);
+                getLog().info("Wrote " + written + " API types");
+            }
+            return;
+        }
+        ImportComputer importComputer = psr.javaInspector().importComputer(Integer.MAX_VALUE);
+        Composer composer = new Composer(psr.javaInspector(),
+                importComputer,
+                set -> packagePrefixGenerator(packagePrefix, set),
+                w -> acceptedTypes.contains(w.typeInfo()));
 
-            Collection<TypeInfo> apiTypes = composer.compose(primaryTypes);
-            Map<Element, Element> dollarMap = composer.translateFromDollarToReal();
+        Collection<TypeInfo> apiTypes;
+        Map<Element, Element> dollarMap;
+        try (Phases.Phase ignored = phases().start("compose")) {
+            apiTypes = composer.compose(primaryTypes);
+            dollarMap = composer.translateFromDollarToReal();
+        }
 
-            Qualification.Decorator decorator = new DecoratorWithComments(getLog(), psr.javaInspector().runtime(),
-                    dollarMap, methodCallFrequencies, overrideFrequencies);
-            composer.write(apiTypes, outputDirectory, decorator);
+        Qualification.Decorator decorator = new DecoratorWithComments(getLog(), psr.javaInspector().runtime(),
+                dollarMap, frequencies);
+        try (Phases.Phase ignored = phases().start("write")) {
+            composer.write(apiTypes, directory, decorator);
+        }
+    }
 
-        } catch (RuntimeException | IOException | DependencyResolutionException e) {
-            throw new MojoExecutionException("Failed to write input configuration", e);
+    /*
+    The sources are parsed again, into a new inspector, and composed and written in one go, on this thread,
+    into a temporary directory; its content must be that of the streaming composition.
+     */
+    private void verifyStreaming(InputConfiguration inputConfiguration, File directory)
+            throws IOException, InterruptedException, MojoExecutionException {
+        ParseSourcesResult again = doParseSources(inputConfiguration);
+        Path inOneGo = Files.createTempDirectory(outputDirectory.getAbsoluteFile().getParentFile().toPath(),
+                "verifyStreaming");
+        try {
+            composeAndWrite(again, false, inOneGo.toFile());
+            List<String> differences = ParallelShallowAnalysis.differences(directory.toPath(), inOneGo);
+            if (!differences.isEmpty()) {
+                throw new MojoExecutionException("The streaming composition differs from the composition in one go"
+                                                 + " in " + differences.size() + " file(s): " + differences);
+            }
+            getLog().info("The streaming composition is the same as the composition in one go");
+        } finally {
+            try (Stream<Path> stream = Files.walk(inOneGo)) {
+                for (Path p : stream.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+            }
         }
     }
 
-    private Set<TypeInfo> computeAcceptedTypes(Set<MethodInfo> methodInfos) {
+    static Set<TypeInfo> computeAcceptedTypes(Collection<MethodInfo> methodInfos) {
         Set<TypeInfo> initial = methodInfos.stream().map(MethodInfo::typeInfo).collect(Collectors.toUnmodifiableSet());
         Set<TypeInfo> superTypes = initial.stream().flatMap(TypeInfo::recursiveSuperTypeStream)
                 .collect(Collectors.toUnmodifiableSet());
@@ -80,9 +173,12 @@ public class WriteAnnotatedAPIsMojo extends CommonMojo {
                 .collect(Collectors.toUnmodifiableSet());
     }
 
+    /*
+    Called for every element that is written; only methods with a frequency get an extra comment,
+    all other elements get the comments of DecoratorImpl as they are.
+     */
     static class DecoratorWithComments extends DecoratorImpl {
-        private final Map<MethodInfo, Integer> methodCallFrequencies;
-        private final Map<MethodInfo, Integer> overrideFrequencies;
+        private final MethodFrequencyTable frequencies;
         private final Runtime runtime;
         private final Map<Element, Element> translationMap;
         private final Log log;
@@ -90,38 +186,36 @@ public class WriteAnnotatedAPIsMojo extends CommonMojo {
         public DecoratorWithComments(Log log,
                                      Runtime runtime,
                                      Map<Element, Element> translationMap,
-                                     Map<MethodInfo, Integer> methodCallFrequencies,
-                                     Map<MethodInfo, Integer> overrideFrequencies) {
+                                     MethodFrequencyTable frequencies) {
             super(runtime, translationMap);
             this.translationMap = translationMap;
             this.log = log;
             this.runtime = runtime;
-            this.methodCallFrequencies = methodCallFrequencies;
-            this.overrideFrequencies = overrideFrequencies;
+            this.frequencies = frequencies;
         }
 
         @Override
         public List<Comment> comments(Element infoIn) {
             Element info = translationMap == null ? infoIn : translationMap.getOrDefault(infoIn, infoIn);
             List<Comment> comments = super.comments(info);
-            if (info instanceof MethodInfo mi) {
-                Integer frequency = methodCallFrequencies.get(mi);
-                Comment comment;
-                if (frequency != null) {
-                    comment = runtime.newSingleLineComment(runtime.noSource(), "frequency " + frequency);
-                } else {
-                    Integer overrideFrequency = overrideFrequencies.get(mi);
-                    if (overrideFrequency != null) {
-                        comment = runtime.newSingleLineComment(runtime.noSource(), "override has frequency " + overrideFrequency);
-                        return Stream.concat(Stream.of(comment), comments.stream()).toList();
-                    } else {
-                        comment = null;
-                    }
-                }
-                if (comment != null) log.debug("Annotating " + mi + " with " + comment.comment());
-                return Stream.concat(Stream.ofNullable(comment), comments.stream()).toList();
+            if (!(info instanceof MethodInfo mi)) return comments;
+            int id = frequencies.id(mi);
+            if (id < 0) return comments;
+            String text;
+            int frequency = frequencies.frequency(id);
+            if (frequency > 0) {
+                text = "frequency " + frequency;
+            } else {
+                int overrideFrequency = frequencies.overrideFrequency(id);
+                if (overrideFrequency == 0) return comments;
+                text = "override has frequency " + overrideFrequency;
             }
-            return comments;
+            Comment comment = runtime.newSingleLineComment(runtime.noSource(), text);
+            if (log.isDebugEnabled()) log.debug("Annotating " + mi + " with " + text);
+            List<Comment> result = new ArrayList<>(comments.size() + 1);
+            result.add(comment);
+            result.addAll(comments);
+            return result;
         }
     }
 
@@ -34,6 +34,8 @@ public class WriteInputConfigurationMojo extends CommonMojo {
             getLog().info("Input configuration exported to: " + outputFile.getAbsolutePath());
         } catch (Exception e) {
             throw new MojoExecutionException("Failed to write input configuration", e);
+        } finally {
+            writePhaseReport();
         }
     }
 }
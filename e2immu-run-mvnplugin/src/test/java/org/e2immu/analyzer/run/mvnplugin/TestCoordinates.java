@@ -0,0 +1,31 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCoordinates {
+
+    @Test
+    public void testClear() {
+        Coordinates.Coordinate coordinate = Coordinates.intern("org.e2immu", "test-coordinates", "1.0");
+        assertSame(coordinate, Coordinates.intern("org.e2immu", "test-coordinates", "1.0"));
+        assertSame(coordinate, Coordinates.find("org.e2immu", "test-coordinates", "1.0"));
+
+        Coordinates.clear();
+        assertNull(Coordinates.find("org.e2immu", "test-coordinates", "1.0"));
+        Coordinates.Coordinate again = Coordinates.intern("org.e2immu", "test-coordinates", "1.0");
+        assertNotEquals(coordinate.id(), again.id());
+        assertEquals(coordinate, again);
+        assertEquals(coordinate.hashCode(), again.hashCode());
+        assertNotEquals(coordinate, Coordinates.intern("org.e2immu", "test-coordinates", "1.1"));
+    }
+
+    @Test
+    public void testBounded() {
+        for (int i = 0; i <= Coordinates.MAX_ENTRIES; ++i) {
+            Coordinates.intern("org.e2immu", "bounded", Integer.toString(i));
+        }
+        assertTrue(Coordinates.size() <= Coordinates.MAX_ENTRIES, "size " + Coordinates.size());
+    }
+}
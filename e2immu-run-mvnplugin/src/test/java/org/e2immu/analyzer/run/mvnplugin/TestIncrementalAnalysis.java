@@ -0,0 +1,54 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestIncrementalAnalysis {
+
+    @TempDir
+    Path directory;
+
+    // between the two runs, a.B was deleted, a.D was added, and package c disappeared with c.E
+    private static final Map<String, String> PREVIOUS = Map.of("a.A", "1", "a.B", "2", "b.C", "3", "c.E", "5");
+    private static final Map<String, String> CURRENT = Map.of("a.A", "1", "a.D", "4", "b.C", "3");
+
+    @Test
+    public void testChangedTypes() {
+        assertEquals(Set.of("a.B", "a.D", "c.E"), IncrementalAnalysis.changedTypes(PREVIOUS, CURRENT));
+        assertEquals(Set.of("a.B", "c.E"), IncrementalAnalysis.vanishedTypes(PREVIOUS, CURRENT));
+        assertEquals(Set.of(), IncrementalAnalysis.changedTypes(CURRENT, CURRENT));
+        assertEquals(Set.of("b.C"), IncrementalAnalysis.changedTypes(CURRENT, Map.of("a.A", "1", "a.D", "4",
+                "b.C", "6")));
+    }
+
+    @Test
+    public void testPackageName() {
+        assertEquals("a.b", IncrementalAnalysis.packageName("a.b.C"));
+        assertEquals("", IncrementalAnalysis.packageName("C"));
+    }
+
+    @Test
+    public void testRemoveStalePackages() throws Exception {
+        File analysis = directory.resolve("analysis").toFile();
+        for (String name : new String[]{"a", "b", "c", "_"}) {
+            File packageDirectory = new File(analysis, name);
+            assertTrue(packageDirectory.mkdirs());
+            Files.writeString(packageDirectory.toPath().resolve("results.json"), "[]");
+        }
+        IncrementalAnalysis incrementalAnalysis = new IncrementalAnalysis(directory.toFile(), new SystemStreamLog());
+        incrementalAnalysis.removeStalePackages(Set.of("a", "b", ""));
+        assertTrue(new File(analysis, "a").isDirectory());
+        assertTrue(new File(analysis, "b").isDirectory());
+        assertTrue(new File(analysis, "_").isDirectory());
+        assertFalse(new File(analysis, "c").exists());
+    }
+}
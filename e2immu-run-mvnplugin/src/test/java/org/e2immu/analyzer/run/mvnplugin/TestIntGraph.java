@@ -0,0 +1,75 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestIntGraph {
+
+    private static List<Integer> successors(IntGraph<?> graph, int id) {
+        List<Integer> list = new ArrayList<>();
+        for (int k = graph.start(id); k < graph.end(id); ++k) list.add(graph.target(k));
+        return list;
+    }
+
+    private static IntGraph<String> abcd() {
+        return new IntGraph.Builder(4)
+                .add(2, 0)
+                .add(0, 1)
+                .add(0, 3)
+                .add(1, 3)
+                .add(0, 2)
+                .build(List.of("a", "b", "c", "d"), Map.of("a", 0, "b", 1, "c", 2, "d", 3));
+    }
+
+    @Test
+    public void test() {
+        IntGraph<String> graph = abcd();
+        assertEquals(4, graph.size());
+        assertEquals(5, graph.edgeCount());
+        // the successors keep the order in which the edges were added
+        assertEquals(List.of(1, 3, 2), successors(graph, 0));
+        assertEquals(List.of(3), successors(graph, 1));
+        assertEquals(List.of(0), successors(graph, 2));
+        assertEquals(List.of(), successors(graph, 3));
+        assertEquals("c", graph.vertex(2));
+        assertEquals(2, graph.id("c"));
+        assertEquals(-1, graph.id("e"));
+        assertEquals(List.of("a", "b", "c", "d"), graph.vertices());
+    }
+
+    @Test
+    public void testReversed() {
+        IntGraph<String> reversed = abcd().reversed();
+        assertEquals(4, reversed.size());
+        assertEquals(5, reversed.edgeCount());
+        assertEquals(List.of(2), successors(reversed, 0));
+        assertEquals(List.of(0), successors(reversed, 1));
+        assertEquals(List.of(0), successors(reversed, 2));
+        assertEquals(List.of(0, 1), successors(reversed, 3));
+        assertEquals(3, reversed.id("d"));
+    }
+
+    @Test
+    public void testWithoutEdges() {
+        IntGraph<Integer> graph = new IntGraph.Builder(3).build();
+        assertEquals(3, graph.size());
+        assertEquals(0, graph.edgeCount());
+        for (int i = 0; i < 3; ++i) assertEquals(graph.start(i), graph.end(i));
+        assertEquals(0, new IntGraph.Builder(0).build().size());
+    }
+
+    @Test
+    public void testGrowing() {
+        IntGraph.Builder builder = new IntGraph.Builder(1000);
+        for (int i = 0; i < 999; ++i) builder.add(i, i + 1);
+        IntGraph<Integer> graph = builder.build();
+        assertEquals(999, graph.edgeCount());
+        assertEquals(List.of(500), successors(graph, 499));
+        assertEquals(List.of(), successors(graph, 999));
+    }
+}
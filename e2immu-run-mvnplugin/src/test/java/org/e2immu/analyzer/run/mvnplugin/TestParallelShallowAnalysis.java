@@ -0,0 +1,50 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+The comparison behind verifyThreads, verifyParallelism and verifyStreaming.
+ */
+public class TestParallelShallowAnalysis {
+
+    @TempDir
+    Path directory;
+
+    private static void write(Path root, String path, String content) throws Exception {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    @Test
+    public void testSame() throws Exception {
+        Path one = directory.resolve("one");
+        Path other = directory.resolve("other");
+        for (Path root : List.of(one, other)) {
+            write(root, "a/A.json", "[1]");
+            write(root, "b/c/C.json", "[2]");
+        }
+        assertEquals(List.of(), ParallelShallowAnalysis.differences(one, other));
+    }
+
+    @Test
+    public void testDifferent() throws Exception {
+        Path one = directory.resolve("one");
+        Path other = directory.resolve("other");
+        write(one, "a/A.json", "[1]");
+        write(other, "a/A.json", "[1 ]");
+        write(one, "b/B.json", "[2]");
+        write(other, "b/B.json", "[2]");
+        write(one, "c/OnlyHere.json", "[3]");
+        write(other, "d/OnlyThere.json", "[4]");
+        assertEquals(List.of(Path.of("a", "A.json").toString(), Path.of("c", "OnlyHere.json").toString(),
+                Path.of("d", "OnlyThere.json").toString()), ParallelShallowAnalysis.differences(one, other));
+    }
+}
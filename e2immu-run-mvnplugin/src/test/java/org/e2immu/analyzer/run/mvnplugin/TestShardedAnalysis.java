@@ -0,0 +1,137 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.e2immu.language.inspection.api.resource.InputConfiguration;
+import org.e2immu.language.inspection.resource.InputConfigurationImpl;
+import org.e2immu.language.inspection.resource.SourceSetImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+Three packages, each depending on the previous one: a sharded run, where b and c only see the class files of
+the earlier packages and their loaded results, must write the same results as a single run over all sources.
+ */
+public class TestShardedAnalysis {
+
+    private static final Map<String, String> SOURCES = Map.of(
+            "a/A.java", """
+                    package a;
+                    public class A {
+                        private int i;
+                        public int get() { return i; }
+                        public void set(int j) { i = j; }
+                    }
+                    """,
+            "b/B.java", """
+                    package b;
+                    import a.A;
+                    public class B {
+                        private final A a = new A();
+                        public A a() { return a; }
+                        public int read() { return a.get(); }
+                        public void write(int j) { a.set(j); }
+                    }
+                    """,
+            "c/C.java", """
+                    package c;
+                    public class C {
+                        public int twice(b.B b) {
+                            b.write(2);
+                            return b.read() + b.a().get();
+                        }
+                    }
+                    """);
+
+    @TempDir
+    Path directory;
+
+    private final Log log = new SystemStreamLog();
+
+    private InputConfiguration fixture() throws IOException {
+        Path src = directory.resolve("src");
+        for (Map.Entry<String, String> entry : SOURCES.entrySet()) {
+            Path path = src.resolve(entry.getKey());
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, entry.getValue());
+        }
+        compile(src, directory.resolve("classes"));
+        return new InputConfigurationImpl.Builder()
+                .setWorkingDirectory(directory.toString())
+                .addSourceSets(new SourceSetImpl("fixture/main", List.of(Path.of("src")), URI.create("file:src"),
+                        StandardCharsets.UTF_8, false, false, false, false, false, Set.of(), Set.of()))
+                .build();
+    }
+
+    @Test
+    public void test() throws Exception {
+        InputConfiguration inputConfiguration = fixture();
+        File classes = directory.resolve("classes").toFile();
+
+        List<Set<String>> plan = ShardedAnalysis.plan(inputConfiguration, 3);
+        assertEquals(List.of(Set.of("a"), Set.of("b"), Set.of("c")), plan);
+
+        File single = directory.resolve("single").toFile();
+        analyze(inputConfiguration, new AnalyzerRun.Shard(Set.of("a", "b", "c"), List.of(), single, Set.of()),
+                List.of());
+
+        File sharded = directory.resolve("sharded").toFile();
+        List<String> load = new ArrayList<>();
+        for (int i = 0; i < plan.size(); ++i) {
+            Set<String> packages = plan.get(i);
+            Set<String> later = new HashSet<>();
+            plan.subList(i + 1, plan.size()).forEach(later::addAll);
+            analyze(inputConfiguration, new AnalyzerRun.Shard(packages, List.copyOf(load), sharded, later),
+                    List.of(classes.getPath()));
+            for (String packageName : packages) {
+                load.add(new File(sharded, IncrementalAnalysis.directoryName(packageName)).getPath());
+            }
+        }
+        assertTrue(new File(single, IncrementalAnalysis.directoryName("c")).isDirectory());
+        assertEquals(List.of(), ParallelShallowAnalysis.differences(single.toPath(), sharded.toPath()));
+    }
+
+    /*
+    A plan in the wrong order, as the planning could produce when a dependency is never spelled out (c reaches a
+    through the return type of b.a()): the worker must fail rather than analyze b and c without the results of a.
+     */
+    @Test
+    public void testDependencyOnLaterShard() throws Exception {
+        InputConfiguration inputConfiguration = fixture();
+        File classes = directory.resolve("classes").toFile();
+        File sharded = directory.resolve("sharded").toFile();
+        AnalyzerRun.Shard first = new AnalyzerRun.Shard(Set.of("b", "c"), List.of(), sharded, Set.of("a"));
+        AnalyzerRun.AnalysisFailedException e = assertThrows(AnalyzerRun.AnalysisFailedException.class,
+                () -> analyze(inputConfiguration, first, List.of(classes.getPath())));
+        assertTrue(e.getMessage().contains("[a]"), e.getMessage());
+        assertFalse(new File(sharded, IncrementalAnalysis.directoryName("b")).exists());
+    }
+
+    private void analyze(InputConfiguration inputConfiguration, AnalyzerRun.Shard shard,
+                         List<String> classesDirectories) throws Exception {
+        AnalyzerRun.Settings settings = new AnalyzerRun.Settings(true, "failFast", 5, 1, false, null, null,
+                false, null, false);
+        ShardWorker.analyze(inputConfiguration, settings, false, shard, classesDirectories, log,
+                new Phases("shard", log));
+    }
+
+    private static void compile(Path src, Path classes) throws IOException {
+        Files.createDirectories(classes);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<String> arguments = new ArrayList<>(List.of("-d", classes.toString()));
+        for (String file : new TreeSet<>(SOURCES.keySet())) arguments.add(src.resolve(file).toString());
+        assertEquals(0, compiler.run(null, null, null, arguments.toArray(String[]::new)));
+    }
+}
@@ -0,0 +1,62 @@
+package org.e2immu.analyzer.run.mvnplugin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestStronglyConnectedComponents {
+
+    private static List<Set<Integer>> components(IntGraph.Builder builder) {
+        return ShardedAnalysis.stronglyConnectedComponents(builder.build()).stream()
+                .map(c -> Arrays.stream(c).boxed().collect(Collectors.toSet()))
+                .toList();
+    }
+
+    @Test
+    public void testChain() {
+        // 0 -> 1 -> 2: a component comes after the components it can reach
+        assertEquals(List.of(Set.of(2), Set.of(1), Set.of(0)),
+                components(new IntGraph.Builder(3).add(0, 1).add(1, 2)));
+    }
+
+    @Test
+    public void testCycle() {
+        assertEquals(List.of(Set.of(3), Set.of(0, 1, 2)),
+                components(new IntGraph.Builder(4).add(0, 1).add(1, 2).add(2, 0).add(2, 3)));
+    }
+
+    @Test
+    public void testTwoCycles() {
+        // {0,1} -> {2,3}, and 4 on its own
+        assertEquals(List.of(Set.of(2, 3), Set.of(0, 1), Set.of(4)),
+                components(new IntGraph.Builder(5).add(0, 1).add(1, 0).add(1, 2).add(2, 3).add(3, 2)));
+    }
+
+    @Test
+    public void testEveryVertexOnce() {
+        IntGraph.Builder builder = new IntGraph.Builder(50);
+        for (int i = 0; i < 50; ++i) {
+            builder.add(i, (i * 7 + 3) % 50);
+            builder.add(i, (i * 13 + 1) % 50);
+        }
+        List<Set<Integer>> components = components(builder);
+        assertEquals(50, components.stream().mapToInt(Set::size).sum());
+        assertEquals(50, components.stream().flatMap(Set::stream).distinct().count());
+    }
+
+    @Test
+    public void testDeepWithoutRecursion() {
+        int n = 200_000;
+        IntGraph.Builder builder = new IntGraph.Builder(n);
+        for (int i = 0; i < n - 1; ++i) builder.add(i, i + 1);
+        builder.add(n - 1, 0);
+        List<int[]> components = ShardedAnalysis.stronglyConnectedComponents(builder.build());
+        assertEquals(1, components.size());
+        assertEquals(n, components.getFirst().length);
+    }
+}